@@ -0,0 +1,11 @@
+package com.johncsinclair.consoletable;
+
+/**
+ * The total shown for a column in the subtotal and grand total rows of a {@link ConsoleTable}. Use an <code>Aggregate</code> in {@link ConsoleTable#withAggregate}.
+ * <p>
+ * <code>COUNT</code> counts the cells which are not empty. The others use the cells which are numbers, or which display as numbers, 
+ * and are whole numbers if all those cells are, except <code>AVG</code>.
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public enum Aggregate { SUM, COUNT, MIN, MAX, AVG };
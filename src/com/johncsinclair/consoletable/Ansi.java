@@ -0,0 +1,99 @@
+package com.johncsinclair.consoletable;
+
+/**
+ * ANSI escape sequences to colour the cells of a {@link ConsoleTable}, and the width of text which contains them.
+ * An escape sequence takes up no room on the terminal, so it is not counted in the width of a cell.
+ * 
+ * @see CellStyler
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public final class Ansi {
+
+	public static final String RESET = "\u001B[0m";
+	public static final String BOLD = "\u001B[1m";
+	public static final String RED = "\u001B[31m";
+	public static final String GREEN = "\u001B[32m";
+	public static final String YELLOW = "\u001B[33m";
+	public static final String BLUE = "\u001B[34m";
+
+	static final char ESC = '\u001B';
+
+	private Ansi() {
+	}
+
+	/**
+	 * @return the number of code points in <code>text</code> which are not part of an escape sequence
+	 */
+	public static int visibleWidth(CharSequence text) {
+		return visibleWidth(text, 0, text.length());
+	}
+
+	/**
+	 * Count the code points from <code>start</code> to <code>end</code> in one pass, skipping any escape sequences,
+	 * so that text without escapes costs no more than <code>codePointCount</code>.
+	 */
+	static int visibleWidth(CharSequence text, int start, int end) {
+		int width = 0;
+		for(int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if(c == ESC) {
+				i = endOfEscape(text, i, end) - 1;
+			}
+			else if(!Character.isLowSurrogate(c)) {
+				width++;
+			}
+		}
+		return width;
+	}
+
+	/**
+	 * @return the index after the first <code>width</code> visible code points from <code>start</code>, 
+	 * including any escape sequences among them
+	 */
+	static int visibleOffset(CharSequence text, int start, int end, int width) {
+		int i = start;
+		while(i < end) {
+			char c = text.charAt(i);
+			if(c == ESC) {
+				i = endOfEscape(text, i, end);
+			}
+			else if(width == 0) {
+				break;
+			}
+			else {
+				i += Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1)) ? 2 : 1;
+				width--;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * @return true if there is an escape sequence from <code>start</code> to <code>end</code>
+	 */
+	static boolean hasEscape(CharSequence text, int start, int end) {
+		for(int i = start; i < end; i++) {
+			if(text.charAt(i) == ESC) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the index after the escape sequence starting at <code>escape</code>, 
+	 * which is a control sequence <code>ESC [ parameters final</code>, or otherwise <code>ESC</code> and one char
+	 */
+	private static int endOfEscape(CharSequence text, int escape, int end) {
+		if(escape + 1 < end && text.charAt(escape + 1) == '[') {
+			int i = escape + 2;
+			while(i < end && (text.charAt(i) < 0x40 || text.charAt(i) > 0x7E)) {
+				i++;
+			}
+			return Math.min(i + 1, end);
+		}
+		return Math.min(escape + 2, end);
+	}
+
+}
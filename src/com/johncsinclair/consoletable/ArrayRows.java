@@ -0,0 +1,92 @@
+package com.johncsinclair.consoletable;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A {@link RowSource} over a <code>List</code> of <code>Object[]</code> rows, 
+ * presenting every row through the same {@link CellAccessor} so that a pass over the rows does not allocate per row.
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class ArrayRows implements RowSource {
+
+	private final List<Object[]> rows;
+	private final int[] order;
+
+	ArrayRows(List<Object[]> rows) {
+		this(rows, null);
+	}
+
+	/**
+	 * @param order the indexes of the rows in the order they are to be read, or null to read them in the order of the list
+	 */
+	ArrayRows(List<Object[]> rows, int[] order) {
+		this.rows = rows;
+		this.order = order;
+	}
+
+	@Override
+	public Iterator<ArrayRow> rows() {
+		return new Cursor();
+	}
+
+	/**
+	 * The iterator over the rows, which is also the accessor for each row it returns, so that a pass over the rows allocates only the cursor.
+	 */
+	private final class Cursor extends ArrayRow implements Iterator<ArrayRow> {
+
+		/** the rows of a list which is not <code>RandomAccess</code>, or null to read them by index */
+		private final Iterator<Object[]> iterator = order == null && !(rows instanceof RandomAccess) ? rows.iterator() : null;
+		private final int size = order != null ? order.length : rows.size();
+		private int next = 0;
+
+		@Override
+		public boolean hasNext() {
+			return iterator != null ? iterator.hasNext() : next < size;
+		}
+
+		@Override
+		public ArrayRow next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if(iterator != null) {
+				cells = iterator.next();
+			}
+			else {
+				cells = rows.get(order != null ? order[next] : next);
+				next++;
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * A {@link CellAccessor} for an <code>Object[]</code>, which may be null for an empty row.
+	 */
+	static class ArrayRow implements CellAccessor {
+
+		Object[] cells;
+
+		ArrayRow() {
+		}
+
+		ArrayRow(Object[] cells) {
+			this.cells = cells;
+		}
+
+		@Override
+		public int columnCount() {
+			return cells == null ? 0 : cells.length;
+		}
+
+		@Override
+		public Object cell(int column) {
+			return cells[column];
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.johncsinclair.consoletable;
+
+/**
+ * The cells of one row of a {@link ConsoleTable}, read by column index from wherever the row is stored, 
+ * without copying them into an <code>Object[]</code>.
+ * <p>
+ * Only {@link #columnCount()} and {@link #cell(int)} must be implemented. A storage backend which can measure or format 
+ * its cells without creating a <code>String</code>, such as an array of primitives, can also override 
+ * {@link #cellWidth(int)} and {@link #appendCell(int, StringBuilder)}, which the table uses to measure and render the cells.
+ * 
+ * @see RowSource
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public interface CellAccessor {
+
+	/**
+	 * @return the number of cells in this row, which may be fewer than the number of columns in the table
+	 */
+	public int columnCount();
+
+	/**
+	 * @param column the index of the column, from 0 to <code>columnCount() - 1</code>
+	 * @return the cell in the given column, to be displayed with its <code>toString()</code>, or null for an empty cell
+	 */
+	public Object cell(int column);
+
+	/**
+	 * @param column the index of the column, from 0 to <code>columnCount() - 1</code>
+	 * @return the number of code points the cell takes up when it is displayed, not counting any ANSI escape sequences, 0 for an empty cell
+	 */
+	public default int cellWidth(int column) {
+		Object cell = cell(column);
+		if(cell == null) {
+			return 0;
+		}
+		return Ansi.visibleWidth(cell.toString());
+	}
+
+	/**
+	 * append the cell as it is displayed, which must be {@link #cellWidth(int)} code points long
+	 * 
+	 * @param column the index of the column, from 0 to <code>columnCount() - 1</code>
+	 * @param out the line of the table being rendered
+	 */
+	public default void appendCell(int column, StringBuilder out) {
+		Object cell = cell(column);
+		if(cell != null) {
+			out.append(cell.toString());
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.johncsinclair.consoletable;
+
+/**
+ * Choose the ANSI style of each data cell of a {@link ConsoleTable}, such as red for errors and green for OK. 
+ * Use a <code>CellStyler</code> in {@link ConsoleTable#withCellStyler(CellStyler)}.
+ * <p>
+ * The style is written before the cell and {@link Ansi#RESET} after it, including any padding or ellipsis, 
+ * so the style takes up no room in the column.
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+@FunctionalInterface
+public interface CellStyler {
+
+	/**
+	 * @param cell the cell, which may be null
+	 * @param column the index of the column, as it is shown
+	 * @return the escape sequences to style the cell with, such as {@link Ansi#RED}, or null to leave it unstyled
+	 */
+	public String style(Object cell, int column);
+
+}
@@ -1,5 +1,10 @@
 package com.johncsinclair.consoletable;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
 /**
  * Format settings for a column in a {@link ConsoleTable}. Use a <code>ColumnFormat</code> in {@link ConsoleTable#setHeaders}.
  * 
@@ -15,6 +20,9 @@ public class ColumnFormat {
 	
 	private String columnHeading;
 	private Aligned alignment = Aligned.RIGHT;
+	/** the heading this format was parsed from, including any alignment prefix, or null if it was given an alignment */
+	private String parsedHeading;
+	private final List<Highlight> highlights = new ArrayList<>();
 
 	/**
 	 * @param columnHeading The heading for the column. By default the column will be right aligned, 
@@ -22,7 +30,8 @@ public class ColumnFormat {
 	 * if columnHeading starts with <code>'</code> the column will be centred.
 	 */
 	public ColumnFormat(String columnHeading) {
-		final char firstChar = columnHeading.charAt(0);
+		this.parsedHeading = columnHeading;
+		final char firstChar = columnHeading.isEmpty() ? ' ' : columnHeading.charAt(0);
 		if(firstChar == '-' || firstChar == '\'') {
 			columnHeading = columnHeading.substring(1);
 			this.alignment = firstChar == '-' ? Aligned.LEFT : Aligned.CENTRE;
@@ -37,12 +46,89 @@ public class ColumnFormat {
 	public ColumnFormat(String columnHeading, Aligned alignment) {
 		this(columnHeading);
 		this.alignment = alignment;
+		this.parsedHeading = null;
 	}
 
 	public Aligned getAlignment() {
 		return alignment;
 	}
 
+	/**
+	 * Style the cells of the column which are numbers greater than <code>threshold</code>, 
+	 * or text which displays as such a number, such as the fields of a CSV file. 
+	 * The highlights are tested in the order they are added, and the first which matches styles the cell, so for example
+	 * <code>withHighlightAbove(500, Ansi.RED).withHighlightAbove(200, Ansi.YELLOW)</code> shows 600 in red and 300 in yellow.
+	 * 
+	 * @param style the ANSI style, such as {@link Ansi#RED}
+	 */
+	public ColumnFormat withHighlightAbove(double threshold, String style) {
+		return withHighlight(Highlight.ABOVE, threshold, null, style);
+	}
+
+	/**
+	 * Style the cells of the column which are numbers less than <code>threshold</code>.
+	 * 
+	 * @param style the ANSI style, such as {@link Ansi#RED}
+	 * @see #withHighlightAbove(double, String)
+	 */
+	public ColumnFormat withHighlightBelow(double threshold, String style) {
+		return withHighlight(Highlight.BELOW, threshold, null, style);
+	}
+
+	/**
+	 * Style the cells of the column for which <code>condition</code> is true. The condition is not tested with empty cells.
+	 * 
+	 * @param style the ANSI style, such as {@link Ansi#RED}
+	 * @see #withHighlightAbove(double, String)
+	 */
+	public ColumnFormat withHighlight(Predicate<Object> condition, String style) {
+		return withHighlight(Highlight.WHEN, 0, Objects.requireNonNull(condition, "condition"), style);
+	}
+
+	private ColumnFormat withHighlight(int kind, double threshold, Predicate<Object> condition, String style) {
+		if(Double.isNaN(threshold)) {
+			throw new IllegalArgumentException("The threshold is not a number");
+		}
+		highlights.add(new Highlight(kind, threshold, condition, Objects.requireNonNull(style, "style")));
+		return this;
+	}
+
+	/**
+	 * @return true if this format is the same as <code>new ColumnFormat(heading)</code>, so it can be used again for the same heading
+	 */
+	boolean isParsedFrom(String heading) {
+		return heading.equals(parsedHeading) && highlights.isEmpty();
+	}
+
+	/**
+	 * @return the highlights in the order they were added
+	 */
+	List<Highlight> highlights() {
+		return highlights;
+	}
+
+	/**
+	 * A rule to style the cells of a column, compiled by {@link HighlightRules} for each render
+	 */
+	static final class Highlight {
+
+		static final int ABOVE = 0;
+		static final int BELOW = 1;
+		static final int WHEN = 2;
+
+		final int kind;
+		final double threshold;
+		final Predicate<Object> condition;
+		final String style;
+
+		Highlight(int kind, double threshold, Predicate<Object> condition, String style) {
+			this.kind = kind;
+			this.threshold = threshold;
+			this.condition = condition;
+			this.style = style;
+		}
+	}
+
 	@Override
 	public String toString() {
 		return columnHeading;
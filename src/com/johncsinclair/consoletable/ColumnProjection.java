@@ -0,0 +1,109 @@
+package com.johncsinclair.consoletable;
+
+import java.util.Iterator;
+
+/**
+ * The columns shown by a {@link ConsoleTable}, as the index of the column of the rows which is shown in each position.
+ * The rows are read through this map, so the cells of hidden columns are never read, measured or rendered, and the rows are not copied.
+ * 
+ * @see ConsoleTable#withColumns(int...)
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class ColumnProjection {
+
+	private final int[] columns;
+
+	ColumnProjection(int[] columns) {
+		this.columns = columns;
+	}
+
+	/**
+	 * @return the number of columns shown
+	 */
+	int columnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * @return the index of the column of the rows shown in position <code>column</code>, or -1 if no column is shown there
+	 */
+	int sourceColumn(int column) {
+		return column < columns.length ? columns[column] : -1;
+	}
+
+	/**
+	 * @return the width of each column shown, from the width of each column of the rows
+	 */
+	int[] widths(int[] sourceWidths) {
+		int[] widths = new int[columns.length];
+		for(int i = 0; i < columns.length; i++) {
+			widths[i] = columns[i] < sourceWidths.length ? sourceWidths[columns[i]] : 0;
+		}
+		return widths;
+	}
+
+	/**
+	 * @return a {@link CellAccessor} for the columns shown of any row, see {@link ProjectedRow#of(CellAccessor)}
+	 */
+	ProjectedRow newRow() {
+		return new ProjectedRow();
+	}
+
+	/**
+	 * @return the <code>rows</code> with only the columns shown, through the same {@link CellAccessor}
+	 */
+	Iterator<CellAccessor> rows(final Iterator<? extends CellAccessor> rows) {
+		final ProjectedRow projectedRow = new ProjectedRow();
+		return new Iterator<CellAccessor>() {
+			@Override
+			public boolean hasNext() {
+				return rows.hasNext();
+			}
+
+			@Override
+			public CellAccessor next() {
+				return projectedRow.of(rows.next());
+			}
+		};
+	}
+
+	/**
+	 * A {@link CellAccessor} for the columns shown of a row, with an empty cell where the row has no such column
+	 */
+	final class ProjectedRow implements CellAccessor {
+
+		private CellAccessor row;
+
+		/**
+		 * @return this, showing the columns of <code>row</code>
+		 */
+		ProjectedRow of(CellAccessor row) {
+			this.row = row;
+			return this;
+		}
+
+		@Override
+		public int columnCount() {
+			return columns.length;
+		}
+
+		@Override
+		public Object cell(int column) {
+			return columns[column] < row.columnCount() ? row.cell(columns[column]) : null;
+		}
+
+		@Override
+		public int cellWidth(int column) {
+			return columns[column] < row.columnCount() ? row.cellWidth(columns[column]) : 0;
+		}
+
+		@Override
+		public void appendCell(int column, StringBuilder out) {
+			if(columns[column] < row.columnCount()) {
+				row.appendCell(columns[column], out);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.johncsinclair.consoletable;
+
+import java.util.Objects;
+
+/**
+ * A {@link Style} checked once, when a {@link ConsoleTable} is given it, and compiled into its patterns 
+ * with the display widths of the LEFT, COLLINE and RIGHT patterns, so that the width of a line is plain arithmetic.
+ * The width of a pattern is its number of code points, not counting any ANSI escape sequences, as for the cells.
+ * <p>
+ * A row is shown if its LEFT pattern is not null. Each row shown must have LEFT, COLLINE and RIGHT patterns, 
+ * and each rule line shown must have a COLDATA pattern to repeat. The ROWDATA row must be shown.
+ * The LEFT, COLLINE and RIGHT patterns must be the same width in every row shown, so that the lines of the table line up.
+ * 
+ * @see ConsoleTable#withStyle(Style)
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class CompiledStyle implements Style {
+
+	private static final CompiledStyle[] STYLES = new CompiledStyle[Styles.values().length];
+	static {
+		for(Styles style : Styles.values()) {
+			STYLES[style.ordinal()] = new CompiledStyle(style);
+		}
+	}
+
+	private final Style style;
+	private final String[][] patterns = new String[Row.values().length][];
+	private final String leftPadding;
+	private final String rightPadding;
+	final int leftWidth;
+	final int colLineWidth;
+	final int rightWidth;
+
+	/**
+	 * @return <code>style</code> compiled, which for the {@link Styles} is done only once
+	 * @throws IllegalArgumentException if <code>style</code> is malformed
+	 */
+	static CompiledStyle of(Style style) {
+		Objects.requireNonNull(style, "style");
+		if(style instanceof CompiledStyle) {
+			return (CompiledStyle) style;
+		}
+		if(style instanceof Styles) {
+			return STYLES[((Styles) style).ordinal()];
+		}
+		return new CompiledStyle(style);
+	}
+
+	private CompiledStyle(Style style) {
+		this.style = style;
+		int[] widths = { -1, -1, -1, -1 };
+		for(Row row : Row.values()) {
+			if(style.getPattern(row, Column.LEFT) == null) {
+				if(row == Row.ROWDATA) {
+					throw malformed(row, Column.LEFT, "is null, but the data rows must be shown");
+				}
+				continue;
+			}
+			String[] rowPatterns = new String[Column.values().length];
+			for(Column column : Column.values()) {
+				String pattern = style.getPattern(row, column);
+				boolean isRuleLine = row != Row.HDRDATA && row != Row.ROWDATA;
+				if(column == Column.COLDATA) {
+					if(isRuleLine && (pattern == null || pattern.isEmpty())) {
+						throw malformed(row, column, "is empty, but a rule line needs a pattern to repeat");
+					}
+				}
+				else if(pattern == null) {
+					throw malformed(row, column, "is null, but the LEFT pattern is not");
+				}
+				else {
+					int width = Ansi.visibleWidth(pattern);
+					if(widths[column.ordinal()] < 0) {
+						widths[column.ordinal()] = width;
+					}
+					else if(width != widths[column.ordinal()]) {
+						throw malformed(row, column, "is " + width + " wide, but is " + widths[column.ordinal()] + " wide in the rows above");
+					}
+				}
+				rowPatterns[column.ordinal()] = pattern;
+			}
+			patterns[row.ordinal()] = rowPatterns;
+		}
+		leftWidth = widths[Column.LEFT.ordinal()];
+		colLineWidth = widths[Column.COLLINE.ordinal()];
+		rightWidth = widths[Column.RIGHT.ordinal()];
+		leftPadding = Objects.requireNonNull(style.getPadding(Column.LEFT), () -> "The LEFT padding of the style " + style + " is null");
+		rightPadding = Objects.requireNonNull(style.getPadding(Column.RIGHT), () -> "The RIGHT padding of the style " + style + " is null");
+	}
+
+	private IllegalArgumentException malformed(Row row, Column column, String problem) {
+		return new IllegalArgumentException("The " + column + " pattern of the " + row + " row of the style " + style + " " + problem);
+	}
+
+	@Override
+	public String getPattern(Row row, Column column) {
+		String[] rowPatterns = patterns[row.ordinal()];
+		return rowPatterns == null ? null : rowPatterns[column.ordinal()];
+	}
+
+	@Override
+	public String getPadding(Column column) {
+		if(column == Column.LEFT) {
+			return leftPadding;
+		}
+		if(column == Column.RIGHT) {
+			return rightPadding;
+		}
+		throw new IllegalArgumentException("There is only LEFT and RIGHT padding, not " + column);
+	}
+
+	/**
+	 * @return the name of the style it was compiled from
+	 */
+	@Override
+	public String toString() {
+		return String.valueOf(style);
+	}
+
+}
@@ -1,12 +1,35 @@
 package com.johncsinclair.consoletable;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.Predicate;
+
+import jdk.jfr.EventType;
 
 import com.johncsinclair.consoletable.Style.Row;
 import com.johncsinclair.consoletable.Style.Column;
 import com.johncsinclair.consoletable.ColumnFormat.Aligned;
+import com.johncsinclair.consoletable.ArrayRows.ArrayRow;
+import com.johncsinclair.consoletable.ColumnProjection.ProjectedRow;
 
 
 /**
@@ -21,6 +44,11 @@ import com.johncsinclair.consoletable.ColumnFormat.Aligned;
  * Dog  10
  * </pre>
  * 
+ * Rendering takes no locks, so it never pins a virtual thread to its carrier, and each render builds its lines in its own <code>StringBuilder</code>.
+ * A table which is not being changed can be rendered by many threads at once, unless its rows come from a <code>RowSource</code> 
+ * which can only be read by one thread at a time, such as a <code>ResultSet</code>. A render only reads the table, 
+ * apart from caching the header lines it renders in an immutable holder, which any thread may use or replace.
+ * 
  * I started with <a href="https://www.logicbig.com/how-to/code-snippets/jcode-java-cmd-command-line-table.html">CommandLineTable</a> and added null handling, fluency, ColumnFormats and customisable Styles and tests.
  * 
  * @author Copyright (c) John C Sinclair 2021
@@ -29,18 +57,51 @@ public class ConsoleTable {
 	
 	private static final Object[] NULL_OBJECT_ARRAY = (Object[])null;
 	private static final Object[] EMPTY_OBJECT_ARRAY = new Object[0];	
-    private Style style = Styles.LIGHT;
+	private static final String ELLIPSIS = "…";
+	private static final String SPACES = "                                ";
+	
+	/** Render buffers larger than this are left for the garbage collector rather than cached for the thread. */
+	private static final int MAX_CACHED_BUFFER = 64 * 1024;
+	/** The most chars a render buffer is sized for up front, the largest array some JVMs can allocate */
+	private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+	private static final ThreadLocal<StringBuilder> RENDER_BUFFER = new ThreadLocal<>();
+	/** <code>Thread.isVirtual()</code>, which is only in JDK 21 and later, or null */
+	private static final MethodHandle IS_VIRTUAL = isVirtualMethod();
+	private static final EventType RENDER_EVENT = EventType.getEventType(RenderEvent.class);
+	private static final EventType SLOW_CELL_EVENT = EventType.getEventType(SlowCellEvent.class);
+    private CompiledStyle style = CompiledStyle.of(Styles.LIGHT);
 
     private Object[] headers;
-    private List<Object[]> rows = new ArrayList<>();
+    private final List<Object[]> rows = new ArrayList<>();
+    private final ArrayRows arrayRows = new ArrayRows(rows);
+    private RowSource rowSource;
+    private OffHeapRows offHeapRows;
+    private SpillRows spillRows;
+    private int maxRowsInMemory;
+    private RowSorter sorter;
+    private int topK;
+    private Comparator<Object[]> topKOrder;
+    private int groupColumn = -1;
+    private Aggregate[] aggregates = new Aggregate[0];
+    private ColumnProjection projection;
+    private Predicate<Object[]> filter;
+    private CellStyler cellStyler;
+    /** Counts the changes to the headers and the columns shown, so that a {@link LiveView} knows when its column widths no longer apply */
+    private int columnsVersion;
     
     private Aligned alignment = Aligned.RIGHT;
+    /** The alignment of each column shown, resolved from its header when the headers, the columns or the alignment are set */
+    private Aligned[] columnAlignments = new Aligned[0];
+    /** The top, heading and header lines of the last render, used again while the layout they were rendered for is the same */
+    private HeaderLines headerLines;
     private boolean showVerticalLines = true;
     private boolean withRowLines = false;
     private String  leftColumnPadding  = " ";
     private String  rightColumnPadding = " ";
-    
-    private int rowWidth;
+    private int     leftPaddingWidth = 1;
+    private int     rightPaddingWidth = 1;
+    private int     maxTableWidth = 0;
+    private RenderListener renderListener;
 
     /**
      * Constructor for empty table. The column headers can be set with setHeaders and data rows can be added with addRow.
@@ -89,43 +150,35 @@ public class ConsoleTable {
         setHeaders(headers);
     }
     
-    //TODO test this
     /**
-     * Constructor for Object[][] table with no headers
-     * @param headers_ - arrays of Strings representing table headers
+     * Constructor for a table which is a view of nested <code>Iterable</code>s, such as a <code>Set</code> of <code>Deque</code>s. 
+     * The rows are not copied, they are read again each time the table is rendered, 
+     * unless the table is sorted or limited to the top k rows, which copies them into the table once.
+     * @param headers Objects representing table headers
+     * @param data Iterables representing rows of columns, a null row is displayed as an empty row.
      */
-    public <T,U> ConsoleTable(final Iterable<T> headers, final Iterable<Iterable<U>> data) {
-    	
-    	for(T t : headers) {
-    		System.out.println(t);
+    public <T,U> ConsoleTable(final Iterable<T> headers, final Iterable<? extends Iterable<U>> data) {
+    	this();
+    	List<Object> headerList = new ArrayList<>();
+    	for(T header : headers) {
+    		headerList.add(header);
     	}
-    	
-    	for(Iterable<U> row : data) {
-    		for( U column : row ) {
-    			System.out.printf("%s ", column);
-    		}
-     		System.out.println();
-    	}
-    	
-    	
-        setHeaders(headers);
-        throw new UnsupportedOperationException("TODO");
+    	setHeaders( headerList.toArray() );
+    	rowSource = new IterableRows(data);
     }
     
     /**
-     * Constructor for Object[][] table with no headers
-     * @param headers_ - arrays of Strings representing table headers
+     * Constructor for a table which is a view of a <code>List</code> of <code>List</code>s.
+     * The rows are not copied, they are read again each time the table is rendered, 
+     * unless the table is sorted or limited to the top k rows, which copies them into the table once.
+     * @param headerList Objects representing table headers
+     * @param rowList Lists representing rows of columns, a null row is displayed as an empty row.
      */
      public <T,U> ConsoleTable(List<T> headerList, List<List<U>> rowList) {
     	 this();
     	 
     	 setHeaders( headerList.toArray(new Object[0]) );
-
-    	 for(List<U> row : rowList) {
-    		Object[] newRow = row.toArray();
-     		rows.add(newRow);
-    	 }
-    	 
+    	 rowSource = new IterableRows(rowList);
 	}
 
      /**
@@ -137,17 +190,96 @@ public class ConsoleTable {
         setHeaders(headers);
 	}
 
+	/**
+	 * Create a table that streams the rows of a JDBC <code>ResultSet</code> as it is rendered, 
+	 * so the rows are never all held in memory. Render it with {@link #renderTo(Appendable)} to write each line as it is read. 
+	 * <p>
+	 * The headers are the column labels, numeric columns are aligned <code>RIGHT</code> and other columns <code>LEFT</code>. 
+	 * The column widths come from <code>getColumnDisplaySize</code>, up to 40 or the width of the label, and longer cells are truncated.
+	 * The <code>ResultSet</code> is read once, so the table can only be rendered once.
+	 * 
+	 * @param resultSet the query results, positioned before the first row
+	 * @throws SQLException if the <code>ResultSetMetaData</code> cannot be read
+	 */
+	public static ConsoleTable from(ResultSet resultSet) throws SQLException {
+		ResultSetRows resultSetRows = new ResultSetRows(resultSet);
+		ConsoleTable table = new ConsoleTable();
+		table.setHeaders((Object[]) resultSetRows.headers());
+		table.rowSource = resultSetRows;
+		return table;
+	}
+
+	/**
+	 * Create a table that streams the rows of a JDBC <code>ResultSet</code>, fetching <code>fetchSize</code> rows at a time from the database.
+	 * 
+	 * @see #from(ResultSet)
+	 */
+	public static ConsoleTable from(ResultSet resultSet, int fetchSize) throws SQLException {
+		resultSet.setFetchSize(fetchSize);
+		return from(resultSet);
+	}
+
+	/**
+	 * Create a table of records, or JavaBeans, with a column for each record component or bean property.
+	 * The records are read as the table is rendered, without copying them into an <code>Object[]</code> for each row.
+	 * <p>
+	 * The columns of a class are found once, and each field is read through a cached <code>MethodHandle</code>. 
+	 * The headers are the component names, in their declared order, or the bean property names, in alphabetical order.
+	 * Numeric columns are aligned <code>RIGHT</code> and other columns <code>LEFT</code>.
+	 * 
+	 * @param type the class of the records
+	 * @param records the records, one for each row of the table
+	 * @throws IllegalArgumentException if <code>type</code> is not a record and has no public getters
+	 */
+	public static <R> ConsoleTable ofRecords(Class<R> type, Iterable<? extends R> records) {
+		RecordRows<R> recordRows = new RecordRows<>(type, records);
+		ConsoleTable table = new ConsoleTable();
+		table.setHeaders((Object[]) recordRows.headers());
+		table.rowSource = recordRows;
+		return table;
+	}
+
+	/**
+	 * Create a table from a comma separated file in UTF-8, with the column headings in the first line.
+	 * 
+	 * @see #fromCsv(Path, CsvOptions)
+	 */
+	public static ConsoleTable fromCsv(Path path) throws IOException {
+		return fromCsv(path, CsvOptions.csv());
+	}
+
+	/**
+	 * Create a table from a CSV or TSV file in UTF-8. The file is memory-mapped and read as it is rendered, 
+	 * so it is never all held in memory. Render it with {@link #renderTo(Appendable)} to write each line as it is read. 
+	 * <p>
+	 * The columns are measured from the bytes of the file, and a field is only made into a <code>String</code> when it is rendered.
+	 * 
+	 * @param path the file to read
+	 * @param options the delimiter, quote and header settings of the file
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public static ConsoleTable fromCsv(Path path, CsvOptions options) throws IOException {
+		CsvRows csvRows = new CsvRows(path, options);
+		ConsoleTable table = new ConsoleTable();
+		table.setHeaders((Object[]) csvRows.headers());
+		table.rowSource = csvRows;
+		return table;
+	}
+
 	
 	
+	/**
+	 * @param style the lines and junctions of the table, which are checked once here
+	 * @throws IllegalArgumentException if the patterns of <code>style</code> are missing or do not line up
+	 */
 	public ConsoleTable withStyle(Style style) {
-        this.style = style;
-    	this.leftColumnPadding  = style.getPadding(Column.LEFT); 
-    	this.rightColumnPadding = style.getPadding(Column.RIGHT);
-        return this;
+        this.style = CompiledStyle.of(style);
+        return withColumnPadding(this.style.getPadding(Column.LEFT), this.style.getPadding(Column.RIGHT));
     }
 
     public ConsoleTable withAlignment(Aligned aligned) {
         this.alignment = aligned;
+        resolveAlignments();
         return this;
     }
 
@@ -157,8 +289,10 @@ public class ConsoleTable {
     }
 
     public ConsoleTable withColumnPadding(String leftColumnPadding, String rightColumnPadding) {
-    	this.leftColumnPadding  = leftColumnPadding; 
-    	this.rightColumnPadding = rightColumnPadding;
+    	this.leftColumnPadding  = Objects.requireNonNull(leftColumnPadding, "leftColumnPadding"); 
+    	this.rightColumnPadding = Objects.requireNonNull(rightColumnPadding, "rightColumnPadding");
+    	this.leftPaddingWidth  = Ansi.visibleWidth(leftColumnPadding);
+    	this.rightPaddingWidth = Ansi.visibleWidth(rightColumnPadding);
         return this;
     }
     
@@ -177,7 +311,316 @@ public class ConsoleTable {
 	}
 
 	/**
-	 * display a row of column headings at the top of the table
+	 * Fit each line of the table into at most <code>maxWidth</code> characters, by shrinking the widest columns 
+	 * and truncating their cells with an ellipsis <code>…</code>.
+	 * 
+	 * @param maxWidth the maximum width of a line, not counting the newline, or 0 for no limit.
+	 */
+	public ConsoleTable withMaxWidth(int maxWidth) {
+		if(maxWidth < 0) {
+			throw new IllegalArgumentException("maxWidth must not be negative: " + maxWidth);
+		}
+		this.maxTableWidth = maxWidth;
+		return this;
+	}
+
+	/**
+	 * Fit the table into the width of the terminal, as given by the <code>COLUMNS</code> environment variable.
+	 * If <code>COLUMNS</code> is not exported, or is not a number, the width of the table is not limited.
+	 */
+	public ConsoleTable withTerminalWidth() {
+		return withMaxWidth(terminalWidth());
+	}
+
+	/**
+	 * Read the data rows from <code>rowSource</code> each time the table is rendered, instead of from an <code>Object[]</code> for each row.
+	 * Any rows added with {@link #addRow} are rendered after them.
+	 * 
+	 * @param rowSource the rows, which are read through its {@link CellAccessor}s
+	 */
+	public ConsoleTable withRows(RowSource rowSource) {
+		if(sorter != null) {
+			throw new IllegalStateException("The rows of a sorted table cannot be read from a RowSource");
+		}
+		this.rowSource = Objects.requireNonNull(rowSource, "rowSource");
+		return this;
+	}
+
+	/**
+	 * Store the data rows outside the Java heap, so that a table of millions of rows does not burden the garbage collector.
+	 * Each cell's <code>toString()</code> is encoded as UTF-8 in direct <code>ByteBuffer</code>s when its row is added, with its display width, 
+	 * so later changes to the cell objects are not shown, and the columns are measured without reading the rows again.
+	 * Rows already added are moved off the heap.
+	 */
+	public ConsoleTable withOffHeapRows() {
+		if(sorter != null) {
+			throw new IllegalStateException("The rows of a sorted table cannot be stored off the heap");
+		}
+		if(offHeapRows == null) {
+			offHeapRows = new OffHeapRows();
+			for(Object[] row : rows) {
+				offHeapRows.add(row);
+			}
+			rows.clear();
+		}
+		return this;
+	}
+
+	/**
+	 * Keep at most <code>maxRowsInMemory</code> rows added with {@link #addRow} in memory. When there are more, 
+	 * they are written to a temporary file, as each cell's <code>toString()</code> with its display width, 
+	 * and they are read back from the file each time the table is rendered. The file is deleted when the table is garbage collected.
+	 * Rows stored by {@link #withOffHeapRows()} are not written to disk.
+	 * 
+	 * @param maxRowsInMemory the number of rows to keep in memory before writing them to disk
+	 */
+	public ConsoleTable withMaxRowsInMemory(int maxRowsInMemory) {
+		if(maxRowsInMemory < 1) {
+			throw new IllegalArgumentException("maxRowsInMemory must be at least 1, not " + maxRowsInMemory);
+		}
+		if(topK > 0) {
+			throw new IllegalStateException("The rows of a table limited to the top k rows cannot spill to disk");
+		}
+		this.maxRowsInMemory = maxRowsInMemory;
+		if(spillRows == null) {
+			spillRows = new SpillRows();
+		}
+		spillIfOverLimit();
+		return this;
+	}
+
+	/**
+	 * Render the data rows sorted by the cells in <code>column</code>. Call this again to sort rows with equal cells by another column.
+	 * Empty cells are sorted last. The rows are sorted each time the table is rendered, as a permutation of their indexes, 
+	 * so neither the rows nor the list of rows are copied.
+	 * <p>
+	 * Rows which spill to disk, see {@link #withMaxRowsInMemory(int)}, are sorted in runs which are merged as they are read back,
+	 * comparing the cells the same way. A spilled number is read back as a number of the same value, a whole number as a <code>Long</code>, 
+	 * and any other cell as the <code>String</code> it displays, so <code>comparator</code> must accept these.
+	 * 
+	 * @param column the index of the column to sort by
+	 * @param comparator the order of the cells, or null to compare numbers by value, other <code>Comparable</code> cells with <code>compareTo</code>,
+	 * and anything else by its <code>toString()</code>
+	 * @param ascending true for the smallest cells first, false for the largest first
+	 * @throws IllegalStateException if the rows are read from a <code>RowSource</code>, other than the <code>Iterable</code>s of a constructor, 
+	 * are stored off the heap, or have already spilled to disk
+	 */
+	public <T> ConsoleTable withSortBy(int column, Comparator<T> comparator, boolean ascending) {
+		if(column < 0) {
+			throw new IllegalArgumentException("column must not be negative, not " + column);
+		}
+		copyIterableRows();
+		if(rowSource != null || offHeapRows != null) {
+			throw new IllegalStateException("Only rows added to the table can be sorted, not rows from a RowSource or stored off the heap");
+		}
+		if(spillRows != null && spillRows.size() > 0) {
+			throw new IllegalStateException("Sort the table before its rows spill to disk");
+		}
+		sorter = sorter == null ? RowSorter.by(column, comparator, ascending) : sorter.thenBy(column, comparator, ascending);
+		return this;
+	}
+
+	/**
+	 * Copy the rows of a table constructed as a view of <code>Iterable</code>s into the table, ahead of any rows added, 
+	 * so that they can be sorted as the rows of the table were before the view.
+	 */
+	private void copyIterableRows() {
+		if(!(rowSource instanceof IterableRows)) {
+			return;
+		}
+		List<Object[]> copied = new ArrayList<>();
+		for(Iterator<? extends CellAccessor> viewed = rowSource.rows(); viewed.hasNext(); ) {
+			CellAccessor row = viewed.next();
+			Object[] cells = new Object[row.columnCount()];
+			for(int i = 0; i < cells.length; i++) {
+				cells[i] = row.cell(i);
+			}
+			copied.add(cells);
+		}
+		rows.addAll(0, copied);
+		rowSource = null;
+	}
+
+	/**
+	 * Keep only the <code>k</code> rows with the largest cells in <code>column</code>, such as the 50 slowest requests,
+	 * and render them largest first. The rows are kept in a bounded heap as they are added, so the table holds no more than <code>k</code> rows
+	 * however many are added. Empty cells are the smallest.
+	 * 
+	 * @param k the number of rows to keep
+	 * @param column the index of the column to rank the rows by
+	 * @param comparator the order of the cells, or null for the order of {@link #withSortBy(int, Comparator, boolean)}. 
+	 * Use a reversed comparator to keep the smallest cells.
+	 * @throws IllegalStateException if the table is already sorted, or if its rows are read from a <code>RowSource</code>, 
+	 * are stored off the heap or spill to disk
+	 */
+	public <T> ConsoleTable withTopK(int k, int column, Comparator<T> comparator) {
+		if(k < 1) {
+			throw new IllegalArgumentException("k must be at least 1, not " + k);
+		}
+		if(sorter != null) {
+			throw new IllegalStateException("A sorted table cannot be limited to the top k rows");
+		}
+		if(spillRows != null) {
+			throw new IllegalStateException("The rows of a table limited to the top k rows cannot spill to disk");
+		}
+		withSortBy(column, comparator, false);
+		topK = k;
+		topKOrder = sorter.rowComparator();
+		List<Object[]> added = new ArrayList<>(rows);
+		rows.clear();
+		for(Object[] row : added) {
+			RowSorter.offer(rows, row, topK, topKOrder);
+		}
+		return this;
+	}
+
+	/**
+	 * Draw a row line between each group of rows with equal cells in <code>column</code>, followed by a subtotal row for the group 
+	 * if the table has aggregates, see {@link #withAggregate(int, Aggregate)}. A group is a run of rows in the order they are rendered, 
+	 * so add the rows in their groups, or sort the table by <code>column</code>.
+	 * 
+	 * @param column the index of the column to group the rows by
+	 */
+	public ConsoleTable withGroupBy(int column) {
+		if(column < 0) {
+			throw new IllegalArgumentException("column must not be negative, not " + column);
+		}
+		checkRowsCanBeReadTwice();
+		groupColumn = column;
+		return this;
+	}
+
+	/**
+	 * Show the <code>aggregate</code> of the cells in <code>column</code> in the subtotal row of each group, see {@link #withGroupBy(int)}, 
+	 * and in a grand total row at the end of the table. The totals are accumulated in primitives, in one pass over the rows 
+	 * before each time the table is rendered, keeping only the totals of each group.
+	 * 
+	 * @param column the index of the column to total
+	 * @param aggregate how to total the column, or null to stop totalling it
+	 */
+	public ConsoleTable withAggregate(int column, Aggregate aggregate) {
+		if(column < 0) {
+			throw new IllegalArgumentException("column must not be negative, not " + column);
+		}
+		checkRowsCanBeReadTwice();
+		if(column >= aggregates.length) {
+			aggregates = Arrays.copyOf(aggregates, column + 1);
+		}
+		aggregates[column] = aggregate;
+		return this;
+	}
+
+	private void checkRowsCanBeReadTwice() {
+		if(rowSource instanceof ResultSetRows) {
+			throw new IllegalStateException("The rows of a ResultSet can only be read once, so they cannot be filtered, grouped or totalled");
+		}
+	}
+
+	/**
+	 * Show only the columns at <code>columnIndexes</code>, in that order, such as 5 of 40 columns. 
+	 * The cells of the other columns are never read or measured, and the rows are not copied. 
+	 * Sorting, grouping and aggregates still use the indexes of the columns in the rows.
+	 * 
+	 * @param columnIndexes the index in the rows of each column to show, or null to show all the columns
+	 */
+	public ConsoleTable withColumns(int... columnIndexes) {
+		if(columnIndexes == null) {
+			projection = null;
+			columnsVersion++;
+			resolveAlignments();
+			return this;
+		}
+		for(int column : columnIndexes) {
+			if(column < 0) {
+				throw new IllegalArgumentException("column must not be negative, not " + column);
+			}
+		}
+		projection = new ColumnProjection(columnIndexes.clone());
+		columnsVersion++;
+		resolveAlignments();
+		return this;
+	}
+
+	/**
+	 * Show only the columns with the headings <code>columnHeadings</code>, in that order.
+	 * 
+	 * @param columnHeadings the heading of each column to show, without any alignment prefix
+	 * @throws IllegalArgumentException if there is no column with one of the headings
+	 * @see #withColumns(int...)
+	 */
+	public ConsoleTable withColumns(String... columnHeadings) {
+		int[] columnIndexes = new int[columnHeadings.length];
+		for(int i = 0; i < columnHeadings.length; i++) {
+			columnIndexes[i] = -1;
+			for(int column = 0; headers != null && column < headers.length; column++) {
+				if(headers[column] != null && headers[column].toString().equals(columnHeadings[i])) {
+					columnIndexes[i] = column;
+					break;
+				}
+			}
+			if(columnIndexes[i] < 0) {
+				throw new IllegalArgumentException("There is no column with the heading " + columnHeadings[i]);
+			}
+		}
+		projection = new ColumnProjection(columnIndexes);
+		columnsVersion++;
+		resolveAlignments();
+		return this;
+	}
+
+	/**
+	 * Show only the rows for which <code>filter</code> is true. The filter is tested once for each row each time the table is rendered, 
+	 * while the columns are measured, and the rows which pass are marked in a bitmap to be rendered, so the rows are not copied.
+	 * Rows which are not <code>Object[]</code>s, such as the rows of a <code>RowSource</code>, are tested with their cells copied into a reused array.
+	 * 
+	 * @param filter the test of the cells of each row, or null to show all the rows
+	 */
+	public ConsoleTable withFilter(Predicate<Object[]> filter) {
+		if(filter != null) {
+			checkRowsCanBeReadTwice();
+		}
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * Style the data cells with ANSI escape sequences, such as {@link Ansi#RED} for errors and {@link Ansi#GREEN} for OK. 
+	 * The style is written before the cell and its padding, and {@link Ansi#RESET} after them, and is not counted in the width of the column.
+	 * Escape sequences within the cells themselves are not counted either.
+	 * 
+	 * @param cellStyler the style of each cell, or null to write no styles
+	 */
+	public ConsoleTable withCellStyler(CellStyler cellStyler) {
+		this.cellStyler = cellStyler;
+		return this;
+	}
+
+	/**
+	 * Report the timings and counts of each render of this table to <code>renderListener</code>.
+	 * 
+	 * @param renderListener the listener, or null to stop reporting. With no listener, the render is not timed.
+	 */
+	public ConsoleTable withRenderListener(RenderListener renderListener) {
+		this.renderListener = renderListener;
+		return this;
+	}
+
+	private static int terminalWidth() {
+		String columns = System.getenv("COLUMNS");
+		if(columns != null) {
+			try {
+				return Math.max(0, Integer.parseInt(columns.trim()));
+			}
+			catch(NumberFormatException e) {
+				// not a number, so do not limit the width
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * display a row of column headings at the top of the table. 
+	 * The heading lines are rendered once, and used again until the headers, the style or the widths of the columns change.
 	 * 
 	 * @param headers The headings for the columns. By default a column will be right aligned, <br>if it starts with <code>-</code> the column will be left aligned, <br>if it starts with <code>'</code> the column will be centred.
 	 */
@@ -198,13 +641,21 @@ public class ConsoleTable {
     		if( columnHeading != null && columnHeading instanceof String && ((String) columnHeading).length() > 0 ) {
     			char firstChar = ((String) columnHeading).charAt(0);
     			if(firstChar == '-' || firstChar == '\'') {
-        			ColumnFormat columnFormat = new ColumnFormat( (String)columnHeading );
-        			columnHeading = columnFormat;
+    				// use the format parsed from the same heading last time again
+    				Object previous = this.headers != null && i < this.headers.length ? this.headers[i] : null;
+    				if(previous instanceof ColumnFormat && ((ColumnFormat) previous).isParsedFrom((String) columnHeading)) {
+    					columnHeading = previous;
+    				}
+    				else {
+    					columnHeading = new ColumnFormat( (String)columnHeading );
+    				}
     			}
     		}
 			newHeaders[i] = columnHeading;
 		} 	
     	this.headers = (newHeaders.length == 0) ? null : newHeaders;
+    	columnsVersion++;
+    	resolveAlignments();
     	
         return this;
     }
@@ -230,7 +681,7 @@ public class ConsoleTable {
     		addRow();
     		return;
     	}
-        rows.add(cells);
+        storeRow(cells);
     }
 
     /**
@@ -257,7 +708,7 @@ public class ConsoleTable {
      * Add an empty row, all columns in the row will be empty.
      */
     public void addRow() {
-        rows.add(NULL_OBJECT_ARRAY );
+        storeRow(NULL_OBJECT_ARRAY );
     }
 
     /**
@@ -267,13 +718,45 @@ public class ConsoleTable {
     public void addAll(Iterable<? extends Object[]> moreRows) {
         for(Object[] row : moreRows) {
         	if( row != null ) {
-        		rows.add( row );
+        		storeRow( row );
         	}
         	else {
-        		rows.add( NULL_OBJECT_ARRAY );
+        		storeRow( NULL_OBJECT_ARRAY );
         	}
         }
     }
+
+    private void storeRow(Object[] row) {
+    	if(offHeapRows != null) {
+    		offHeapRows.add(row);
+    	}
+    	else if(topK > 0) {
+    		RowSorter.offer(rows, row, topK, topKOrder);
+    	}
+    	else {
+    		rows.add(row);
+    		spillIfOverLimit();
+    	}
+    }
+
+    private void spillIfOverLimit() {
+    	if(spillRows != null && rows.size() > maxRowsInMemory) {
+    		if(sorter != null) {
+    			// spill the rows as a sorted run, to be merged with the other runs when the table is rendered
+    			for(int index : sorter.order(rows)) {
+    				spillRows.add(rows.get(index));
+    			}
+    		}
+    		else {
+	    		for(Object[] row : rows) {
+	    			spillRows.add(row);
+	    		}
+    		}
+    		// write the run to disk now, so that rendering only reads the spilled rows
+    		spillRows.endRun();
+    		rows.clear();
+    	}
+    }
     
     
     /**
@@ -281,167 +764,861 @@ public class ConsoleTable {
      */
     @Override
     public String toString() {
-    	return render();
+    	return render(null, null);
+    }
+
+    /**
+     * @return a number which changes each time the headers or the columns shown are changed
+     */
+    int columnsVersion() {
+    	return columnsVersion;
+    }
+
+    /**
+     * @param minColumnWidths the least width of each column, or null
+     * @param columnWidths if not null, its first element is set to the width of each column rendered, before they are fitted to the maximum width
+     * @return the rendered table
+     */
+    String render(int[] minColumnWidths, int[][] columnWidths) {
+    	try {
+    		return render(null, minColumnWidths, columnWidths);
+    	}
+    	catch(IOException e) {
+    		// only an Appendable can throw an IOException
+    		throw new UncheckedIOException(e);
+    	}
+    }
+
+    /**
+     * Create a view of this table which redraws only the changes to the table each time it is updated, 
+     * on a terminal which understands ANSI escape sequences.
+     * 
+     * @param out the terminal, such as <code>System.out</code>
+     */
+    public LiveView liveView(Appendable out) {
+    	return new LiveView(this, out);
+    }
+
+    /**
+     * Render the table line by line to <code>out</code>, such as a <code>Writer</code>, without building the whole table in a <code>String</code>.
+     * 
+     * @param out where to append each line of the table as it is rendered
+     * @throws IOException if <code>out</code> throws an IOException
+     */
+    public void renderTo(Appendable out) throws IOException {
+    	Objects.requireNonNull(out, "out");
+    	render(out, null, null);
+    }
+
+    /**
+     * Render the table once, appending each line to each of <code>outs</code>, such as <code>System.out</code> and a log file, 
+     * from a {@link TeeSink} with a bounded queue for each of them, so a slow <code>Appendable</code> does not hold up the others. 
+     * 
+     * @param outs where to append each line of the table as it is rendered
+     * @throws IOException the first IOException thrown by any of <code>outs</code>, after the others have been written to
+     */
+    public void renderTo(Appendable... outs) throws IOException {
+    	if(outs.length == 1) {
+    		renderTo(outs[0]);
+    		return;
+    	}
+    	try(TeeSink tee = new TeeSink(outs)) {
+    		render(tee, null, null);
+    	}
+    }
+
+    /**
+     * A publisher of the table rendered as UTF-8, in chunks rendered only as the subscriber requests them, each on a new thread.
+     * 
+     * @see #publisher(Charset, Executor)
+     */
+    public Flow.Publisher<ByteBuffer> publisher() {
+    	return publisher(StandardCharsets.UTF_8, RenderPublisher.NEW_THREAD);
+    }
+
+    /**
+     * A publisher of the table rendered as bytes, for a non-blocking server to stream to a slow client without holding the whole table in memory. 
+     * Each subscriber has its own render, run by <code>executor</code>, which renders a chunk of about 8K chars 
+     * and then waits until the subscriber requests it before rendering more, so the render blocks a thread of <code>executor</code> while it waits.
+     * 
+     * @param charset the encoding of the bytes
+     * @param executor runs the render for each subscriber
+     */
+    public Flow.Publisher<ByteBuffer> publisher(Charset charset, Executor executor) {
+    	return new RenderPublisher(this, charset, executor, RenderPublisher.CHUNK_SIZE);
+    }
+
+    /**
+     * Write the table in other formats, such as Markdown and HTML, in one pass over the rows, 
+     * together with the console table itself with {@link TableEncoders#console(Appendable, Style)}.
+     * Each cell is converted to a <code>String</code> once, and passed to each encoder in turn.
+     * The rows are sorted, filtered and their columns chosen as they are for the console, but there are no subtotal or total rows.
+     * 
+     * @param encoders the formats to write, such as {@link TableEncoders#markdown(Appendable)}
+     * @throws IOException if an encoder throws an IOException
+     */
+    public void encodeTo(TableEncoder... encoders) throws IOException {
+    	TableEncoder encoder = encoders.length == 1 ? Objects.requireNonNull(encoders[0], "encoder") : TableEncoders.tee(encoders);
+    	int headingCount = headers == null ? 0 : (projection == null ? headers.length : projection.columnCount());
+    	String[] headings = new String[headingCount];
+    	Aligned[] alignments = new Aligned[headingCount];
+    	for(int i = 0; i < headingCount; i++) {
+    		Object header = header(i);
+    		headings[i] = header == null ? "" : header.toString();
+    		alignments[i] = header instanceof ColumnFormat ? ((ColumnFormat) header).getAlignment() : alignment;
+    	}
+    	encoder.begin(headings, alignments);
+
+    	int[] order = sorter == null ? null : sorter.order(rows);
+    	Iterator<? extends CellAccessor> dataRows = filter == null ? dataRows(order) : FilteredRows.filter(dataRows(order), filter, new BitSet());
+    	Iterator<? extends CellAccessor> shownRows = shown(dataRows);
+    	String[] cells = new String[0];
+    	while(shownRows.hasNext()) {
+    		CellAccessor row = shownRows.next();
+    		if(cells.length != row.columnCount()) {
+    			cells = new String[row.columnCount()];
+    		}
+    		for(int i = 0; i < cells.length; i++) {
+    			Object cell = row.cell(i);
+    			cells[i] = cell == null ? null : cell.toString();
+    		}
+    		encoder.row(cells);
+    	}
+    	encoder.end();
     }
     
-    private String render() {
+    /**
+     * @param out where to append each line as it is rendered, or null to render the whole table into a <code>String</code>
+     * @param minColumnWidths the least width of each column, or null
+     * @param columnWidths if not null, its first element is set to the width of each column rendered, before they are fitted to the maximum width
+     * @return the rendered table, or null if it was appended to <code>out</code>
+     */
+    private String render(Appendable out, int[] minColumnWidths, int[][] columnWidths) throws IOException {
+    	
+    	// only a render which a recording is listening for creates an event
+    	RenderEvent event = null;
+    	if(RENDER_EVENT.isEnabled()) {
+    		event = new RenderEvent();
+    		event.begin();
+    	}
+    	boolean timeCells = SLOW_CELL_EVENT.isEnabled();
     	
-    	int[] maxWidths = calculateMaxWidths();
+    	// the statistics also count the rows and chars for the RenderEvent
+    	RenderStatistics statistics = null;
+    	long startNanos = 0;
+    	if(renderListener != null || event != null) {
+    		statistics = new RenderStatistics();
+    		statistics.bufferReused = cachesBuffer() && RENDER_BUFFER.get() != null;
+    		startNanos = System.nanoTime();
+    	}
+    	
+    	int[] order = sorter == null ? null : sorter.order(rows);
+    	BitSet passing = filter == null ? null : new BitSet();
+    	int[] maxWidths = calculateMaxWidths(timeCells, order, passing);
+    	GroupTotals totals = null;
+    	if(groupColumn >= 0 || aggregates.length > 0) {
+    		totals = new GroupTotals(groupColumn, aggregates);
+    		totals.add(dataRows(order, passing));
+    		maxWidths = maxOf(maxWidths, shown(totals.columnWidths()));
+    	}
+    	if(minColumnWidths != null) {
+    		maxWidths = maxOf(maxWidths, minColumnWidths);
+    	}
+    	if(columnWidths != null) {
+    		columnWidths[0] = maxWidths;
+    	}
 
-    	rowWidth = calculateRowWidth(maxWidths);
+    	if(maxTableWidth > 0) {
+    		int linesWidth = calculateRowWidth(new int[maxWidths.length]) - "\n".length();
+    		maxWidths = fitColumnWidths(maxWidths, maxTableWidth - linesWidth);
+    	}
+    	if(statistics != null) {
+    		statistics.widthNanos = System.nanoTime() - startNanos;
+    		statistics.columnCount = maxWidths.length;
+    	}
+    	int rowWidth = calculateRowWidth(maxWidths);
+    	CellStyler styler = compileStyler(maxWidths.length);
     	
-    	int renderedLineCount = rows.size();
-    	if(withRowLines) {
-    		renderedLineCount = renderedLineCount * 2;
+    	long renderedLineCount = 1;
+    	if(out == null) {
+	    	renderedLineCount = (long) rows.size() + (offHeapRows == null ? 0 : offHeapRows.size()) + (spillRows == null ? 0 : spillRows.size());
+	    	if(withRowLines) {
+	    		renderedLineCount = renderedLineCount * 2;
+	    	}
+	    	if (headers != null) {
+	    		renderedLineCount++;
+	    	}
     	}
-    	if (headers != null) {
-    		renderedLineCount++;
+		StringBuilder buf = acquireBuffer(rowWidth * renderedLineCount);
+		try {
+	    	renderHeaderLines(buf, out, maxWidths, timeCells, statistics);
+	        
+	    	int rowCount = renderDataRows(buf, out, dataRows(order, passing), totals, maxWidths, styler, timeCells, statistics);
+	        
+	       	renderLine(buf, out, Row.BOTTOM, maxWidths, null, styler, timeCells, statistics);
+	
+	       	long outputStartNanos = statistics == null ? 0 : System.nanoTime();
+	       	String table = out == null ? buf.toString() : null;
+	       	if(statistics != null) {
+	       		if(out == null) {
+	       			statistics.outputNanos = System.nanoTime() - outputStartNanos;
+	       		}
+	       		statistics.rowCount = rowCount;
+	       		if(renderListener != null) {
+	       			renderListener.rendered(statistics);
+	       		}
+	       	}
+	       	if(event != null) {
+	       		event.end();
+	       	}
+	       	// a recording which starts part way through a render has no event to commit for it
+	       	if(event != null && event.shouldCommit()) {
+	       		event.rows = rowCount;
+	       		event.columns = maxWidths.length;
+	       		event.style = String.valueOf(style);
+	       		event.chars = statistics.charCount;
+	       		event.commit();
+	       	}
+	        return table;
+		}
+		finally {
+			releaseBuffer(buf);
+		}
+    }
+
+    /**
+     * @param order the sorted order of the rows in memory, or null if the table is not sorted
+     * @param passing the positions of the rows which pass the filter, or null if the table is not filtered
+     * @return the data rows, in the order they are rendered
+     */
+    private Iterator<? extends CellAccessor> dataRows(int[] order, BitSet passing) {
+    	return passing == null ? dataRows(order) : FilteredRows.select(dataRows(order), passing);
+    }
+
+    /**
+     * @param order the sorted order of the rows in memory, or null if the table is not sorted
+     * @return all the data rows, in the order they are rendered
+     */
+    private Iterator<? extends CellAccessor> dataRows(int[] order) {
+    	if(rowSource == null && order == null && spillRows == null && offHeapRows == null) {
+    		// the usual table, held only in memory and unsorted, is read directly
+    		return arrayRows.rows();
+    	}
+    	List<Iterator<? extends CellAccessor>> sources = new ArrayList<>();
+    	if(rowSource != null) {
+    		sources.add(rowSource.rows());
+    	}
+    	if(order != null) {
+    		sources.add(sortedRows(order));
+    	}
+    	else {
+	    	// rows are spilled only until they are stored off the heap
+	    	if(spillRows != null) {
+	    		sources.add(spillRows.rows());
+	    	}
+	    	if(offHeapRows != null) {
+	    		sources.add(offHeapRows.rows());
+	    	}
+	    	sources.add(arrayRows.rows());
     	}
-		StringBuffer buf = new StringBuffer(rowWidth * renderedLineCount); // TODO tableWidth()+1);
+    	if(sources.size() == 1) {
+    		return sources.get(0);
+    	}
+    	return new Iterator<CellAccessor>() {
+    		private int source = 0;
 
-    	buf.append(renderRow(Row.TOP, maxWidths, null));
+			@Override
+			public boolean hasNext() {
+				while(source < sources.size() && !sources.get(source).hasNext()) {
+					source++;
+				}
+				return source < sources.size();
+			}
 
-    	if (headers != null) {
-            buf.append(renderRow(Row.HDRDATA, maxWidths, headers));
-            buf.append(renderRow(Row.HDRLINE, maxWidths, null));
-        }
-        
-    	for (int i = 0; i < rows.size(); i++) {
-        	Object[] row = rows.get(i);
-        	buf.append(renderRow(Row.ROWDATA, maxWidths, row));
-        	if( i != renderedLineCount - 1 && withRowLines ) {
-        		buf.append(renderRow(Row.ROWLINE, maxWidths, null));
+			@Override
+			public CellAccessor next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return sources.get(source).next();
+			}
+    	};
+    }
+
+    /**
+     * @return the rows in memory in sorted order, merged with any sorted runs spilled to disk
+     */
+    private Iterator<? extends CellAccessor> sortedRows(int[] order) {
+    	Iterator<ArrayRow> sortedRows = new ArrayRows(rows, order).rows();
+    	if(spillRows == null || spillRows.size() == 0) {
+    		return sortedRows;
+    	}
+    	List<Iterator<? extends CellAccessor>> runs = spillRows.runs();
+    	runs.add(sortedRows);
+    	return sorter.merge(runs);
+    }
+
+    /**
+     * render each row from <code>dataRows</code>, followed by a row line if the table has row lines, 
+     * with the subtotal rows between the groups and the grand total at the end
+     * 
+     * @param totals the totals of <code>dataRows</code>, or null if the table is not grouped or totalled
+     * @return the number of data rows rendered
+     */
+    private int renderDataRows(StringBuilder buf, Appendable out, Iterator<? extends CellAccessor> dataRows, GroupTotals totals, int[] maxWidths, 
+    		CellStyler styler, boolean timeCells, RenderStatistics statistics) throws IOException {
+    	int rowCount = 0;
+    	boolean ruled = false;
+    	Iterator<Object[]> subtotals = totals == null ? null : totals.subtotals().iterator();
+    	Object groupKey = null;
+    	ProjectedRow shownRow = projection == null ? null : projection.newRow();
+    	while(dataRows.hasNext()) {
+    		CellAccessor row = dataRows.next();
+    		if(totals != null && totals.hasGroups()) {
+    			Object rowKey = totals.groupKey(row);
+    			if(rowCount > 0 && !Objects.equals(rowKey, groupKey)) {
+    				ruled = renderTotal(buf, out, subtotals.hasNext() ? subtotals.next() : null, ruled, maxWidths, styler, timeCells, statistics);
+    			}
+    			groupKey = rowKey;
+    		}
+        	renderLine(buf, out, Row.ROWDATA, maxWidths, shownRow == null ? row : shownRow.of(row), styler, timeCells, statistics);
+        	if(withRowLines) {
+        		renderLine(buf, out, Row.ROWLINE, maxWidths, null, styler, timeCells, statistics);
         	}
+        	ruled = withRowLines;
+        	rowCount++;
         }
-        
-       	buf.append(renderRow(Row.BOTTOM, maxWidths, null));
+    	if(totals != null && totals.grandTotal() != null) {
+    		if(totals.hasGroups() && subtotals.hasNext()) {
+    			ruled = renderTotal(buf, out, subtotals.next(), ruled, maxWidths, styler, timeCells, statistics);
+    		}
+    		if(!ruled) {
+    			renderLine(buf, out, Row.ROWLINE, maxWidths, null, styler, timeCells, statistics);
+    		}
+    		renderLine(buf, out, Row.ROWDATA, maxWidths, shown(new ArrayRow(totals.grandTotal())), styler, timeCells, statistics);
+    	}
+    	return rowCount;
+    }
+
+    /**
+     * render a row line, unless the last line was one, then <code>subtotal</code> followed by another row line
+     * 
+     * @param subtotal the subtotal row, or null to separate the groups with just a row line
+     * @param ruled true if the last line rendered is a row line
+     * @return true, as the last line rendered is a row line
+     */
+    private boolean renderTotal(StringBuilder buf, Appendable out, Object[] subtotal, boolean ruled, int[] maxWidths, 
+    		CellStyler styler, boolean timeCells, RenderStatistics statistics) throws IOException {
+    	if(!ruled) {
+    		renderLine(buf, out, Row.ROWLINE, maxWidths, null, styler, timeCells, statistics);
+    	}
+    	if(subtotal != null) {
+    		renderLine(buf, out, Row.ROWDATA, maxWidths, shown(new ArrayRow(subtotal)), styler, timeCells, statistics);
+    		renderLine(buf, out, Row.ROWLINE, maxWidths, null, styler, timeCells, statistics);
+    	}
+    	return true;
+    }
+
+    /**
+     * Take the render buffer cached for this thread, or a new one if there is none.
+     * The cached buffer is removed while it is in use, in case a cell's <code>toString()</code> renders another table.
+     *
+     * @param estimatedLength the length the table is expected to render to, of which no more than {@link #MAX_BUFFER_SIZE} chars are allocated up front
+     */
+    private static StringBuilder acquireBuffer(long estimatedLength) {
+    	int capacity = (int) Math.min(estimatedLength, MAX_BUFFER_SIZE);
+    	StringBuilder buf = cachesBuffer() ? RENDER_BUFFER.get() : null;
+    	if(buf == null) {
+    		return new StringBuilder(capacity);
+    	}
+    	RENDER_BUFFER.set(null);
+    	buf.ensureCapacity(capacity);
+    	return buf;
+    }
+
+    /**
+     * Keep <code>buf</code> for the next render on this thread, unless it has grown beyond {@link #MAX_CACHED_BUFFER}.
+     */
+    private static void releaseBuffer(StringBuilder buf) {
+    	if(buf.capacity() <= MAX_CACHED_BUFFER && cachesBuffer()) {
+    		buf.setLength(0);
+    		RENDER_BUFFER.set(buf);
+    	}
+    }
 
-        return buf.toString();
+    /**
+     * @return false on a virtual thread, which usually renders only once, so a buffer cached for it would only be garbage
+     */
+    private static boolean cachesBuffer() {
+    	if(IS_VIRTUAL == null) {
+    		return true;
+    	}
+    	try {
+    		return !(boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+    	}
+    	catch(Throwable e) {
+    		// Thread.isVirtual() throws nothing
+    		return true;
+    	}
     }
 
+    /**
+     * @return <code>Thread.isVirtual()</code>, found by reflection so that the table still runs on JDK 17, or null if there are no virtual threads
+     */
+    private static MethodHandle isVirtualMethod() {
+    	try {
+    		return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+    	}
+    	catch(NoSuchMethodException | IllegalAccessException e) {
+    		return null;
+    	}
+    }
+
+    /**
+     * @return the width of a line of the table, including the newline, from the widths of the patterns of the style worked out by {@link CompiledStyle}
+     */
     private int calculateRowWidth(int[] columnWidths) {
     	
-    	int rowWidth = 0;
-    	Row rowType = Row.ROWDATA;
-    	
-    	if(showVerticalLines) {
-    		rowWidth += style.getPattern(rowType, Column.LEFT).length();
+    	int rowWidth = "\n".length();
+    	for(int columnWidth : columnWidths) {
+    		rowWidth += columnWidth;
     	}
-        for (int i = 0; i < columnWidths.length; i++) {
-        	
-			String joinSep = showVerticalLines ? style.getPattern(rowType, Column.COLLINE) : " ";
-			boolean isLastCell = i == columnWidths.length - 1;
-        	
-			if(showVerticalLines)
-				rowWidth += leftColumnPadding.length();
- 
-			rowWidth += columnWidths[i];
-
-			if(showVerticalLines)
-				rowWidth += rightColumnPadding.length();
-  	   		if(!isLastCell) {
-				rowWidth += joinSep.length();
-    		}
-         }
+    	// the cells are padded whether or not the vertical lines are shown
+    	rowWidth += columnWidths.length * (leftPaddingWidth + rightPaddingWidth);
+    	int joins = Math.max(0, columnWidths.length - 1);
     	if(showVerticalLines) {
-    		rowWidth += style.getPattern(rowType, Column.RIGHT).length();
+    		rowWidth += style.leftWidth + joins * style.colLineWidth + style.rightWidth;
+    	}
+    	else {
+    		rowWidth += joins * " ".length();
     	}
-		rowWidth += "\n".length();
-		
         return rowWidth;
     }
     
 	public int[] calculateMaxWidths() {
+		return calculateMaxWidths(false, null, filter == null ? null : new BitSet());
+	}
+
+	/**
+	 * @param order the sorted order of the rows in memory, or null if the table is not sorted
+	 * @param passing null if the table is not filtered, otherwise an empty <code>BitSet</code> in which to mark the position 
+	 * of each row which passes the filter, in the <code>order</code> of the rows
+	 */
+	private int[] calculateMaxWidths(boolean timeCells, int[] order, BitSet passing) {
      
 		//  instead of throwing exception, be permissive, and if header and data widths are not equal then display blanks at the end of header or data.
 		
-		List<Integer> maxWidths = new ArrayList<>();
-
+		int[] maxWidths = new int[headers == null ? 0 : (projection == null ? headers.length : projection.columnCount())];
     	
-        if(headers != null) {
-	    	for (int i = 0; i < headers.length; i++) {
-	    		if( i > maxWidths.size() - 1 ) {
-	    			maxWidths.add(0);
-	    		}
-				maxWidths.set(i, Math.max(maxWidths.get(i), headers[i] == null ? 0 : headers[i].toString().codePointCount(0, headers[i].toString().length()) ));
-	        }
+    	for (int i = 0; i < maxWidths.length; i++) {
+			maxWidths[i] = displayWidth(header(i), i, timeCells);
         }
 
-        for (Object[] cells : rows) {
-	        if(cells != null) {
-	            for (int i = 0; i < cells.length; i++) {
-	 	    		if( i > maxWidths.size() - 1 ) {
-		    			maxWidths.add(0);
-		    		}
-		    		maxWidths.set(i, Math.max(maxWidths.get(i), cells[i] == null ? 0 :  cells[i].toString().codePointCount(0, cells[i].toString().length()) ));
-	           }
+        if(passing != null) {
+        	// only the rows which pass the filter are measured, so none of the known widths can be used
+        	return measure(maxWidths, shown(FilteredRows.filter(dataRows(order), filter, passing)), timeCells);
+        }
+
+        if(rowSource != null) {
+        	int[] knownWidths = rowSource.columnWidths();
+        	if(knownWidths != null) {
+        		maxWidths = maxOf(maxWidths, shown(knownWidths));
+        	}
+        	else {
+        		maxWidths = measure(maxWidths, shown(rowSource.rows()), timeCells);
         	}
         }
-		return maxWidths.stream().mapToInt(Integer::intValue).toArray();
+        if(offHeapRows != null) {
+        	maxWidths = maxOf(maxWidths, shown(offHeapRows.columnWidths()));
+        }
+        if(spillRows != null) {
+        	maxWidths = maxOf(maxWidths, shown(spillRows.columnWidths()));
+        }
+		return measure(maxWidths, shown(arrayRows.rows()), timeCells);
 	}
 
-    private String renderRow(Row rowType, int[] columnWidths, Object[] cells ) {
+	/**
+	 * Resolve the alignment of each column shown from its header, once, rather than for each cell.
+	 */
+	private void resolveAlignments() {
+		Aligned[] resolved = new Aligned[headers == null ? 0 : (projection == null ? headers.length : projection.columnCount())];
+		for(int i = 0; i < resolved.length; i++) {
+			Object header = header(i);
+			resolved[i] = header instanceof ColumnFormat ? ((ColumnFormat) header).getAlignment() : alignment;
+		}
+		columnAlignments = resolved;
+	}
+
+	/**
+	 * @return the header of the column shown at <code>column</code>, or null if it has none
+	 */
+	private Object header(int column) {
+		int sourceColumn = projection == null ? column : projection.sourceColumn(column);
+		return headers != null && sourceColumn >= 0 && sourceColumn < headers.length ? headers[sourceColumn] : null;
+	}
+
+	/**
+	 * @return the highlights of the columns shown compiled for this render, 
+	 * or just the {@link CellStyler} if the columns have no highlights
+	 */
+	private CellStyler compileStyler(int columnCount) {
+		HighlightRules rules = null;
+		for(int i = 0; i < columnCount; i++) {
+			Object header = header(i);
+			if(header instanceof ColumnFormat && !((ColumnFormat) header).highlights().isEmpty()) {
+				if(rules == null) {
+					rules = new HighlightRules(columnCount, cellStyler);
+				}
+				rules.compile(i, (ColumnFormat) header);
+			}
+		}
+		return rules == null ? cellStyler : rules;
+	}
+
+	/**
+	 * @return the widths of the columns shown, from the widths of the columns of the rows
+	 */
+	private int[] shown(int[] widths) {
+		return projection == null ? widths : projection.widths(widths);
+	}
+
+	/**
+	 * @return the rows with only the columns shown
+	 */
+	private Iterator<? extends CellAccessor> shown(Iterator<? extends CellAccessor> rows) {
+		return projection == null ? rows : projection.rows(rows);
+	}
+
+	/**
+	 * @return the row with only the columns shown
+	 */
+	private CellAccessor shown(CellAccessor row) {
+		return projection == null ? row : projection.newRow().of(row);
+	}
+
+	/**
+	 * @return <code>maxWidths</code>, widened to fit every cell in <code>dataRows</code>
+	 */
+	private static int[] measure(int[] maxWidths, Iterator<? extends CellAccessor> dataRows, boolean timeCells) {
+        while(dataRows.hasNext()) {
+        	CellAccessor cells = dataRows.next();
+        	int columnCount = cells.columnCount();
+        	if(columnCount > maxWidths.length) {
+        		maxWidths = Arrays.copyOf(maxWidths, columnCount);
+        	}
+            for (int i = 0; i < columnCount; i++) {
+	    		int cellWidth = timeCells ? displayWidth(cells.cell(i), i, true) : cells.cellWidth(i);
+	    		maxWidths[i] = Math.max(maxWidths[i], cellWidth);
+            }
+        }
+        return maxWidths;
+	}
+
+	/**
+	 * @return the larger of each width in <code>widths</code> and <code>moreWidths</code>
+	 */
+	private static int[] maxOf(int[] widths, int[] moreWidths) {
+		int[] maxWidths = Arrays.copyOf(widths, Math.max(widths.length, moreWidths.length));
+		for(int i = 0; i < moreWidths.length; i++) {
+			maxWidths[i] = Math.max(maxWidths[i], moreWidths[i]);
+		}
+		return maxWidths;
+	}
+
+	/**
+	 * @return the number of code points in <code>cell.toString()</code> outside any escape sequences, or 0 for a null <code>cell</code>
+	 */
+	private static int displayWidth(Object cell, int column, boolean timeCells) {
+		return Ansi.visibleWidth(cellString(cell, column, timeCells));
+	}
+
+	/**
+	 * @return <code>cell.toString()</code>, or "" for a null <code>cell</code>
+	 * @param timeCells if true, time the <code>toString()</code> and record a {@link SlowCellEvent} if it is slow
+	 */
+	private static String cellString(Object cell, int column, boolean timeCells) {
+		if(cell == null) {
+			return "";
+		}
+		if(!timeCells) {
+			return cell.toString();
+		}
+		SlowCellEvent event = new SlowCellEvent();
+		event.begin();
+		String cellString = cell.toString();
+		event.end();
+		if(event.shouldCommit()) {
+			event.column = column;
+			event.cellClass = cell.getClass().getName();
+			event.commit();
+		}
+		return cellString;
+	}
+
+	/**
+	 * Shrink the widest columns so that the total of the <code>columnWidths</code> is no more than <code>availableWidth</code>.
+	 * Columns narrower than the cut keep their width, the wider columns are all cut to the same width, 
+	 * and any remainder is shared out from the left. Only the widths are sorted, so the rows are not scanned again.
+	 * 
+	 * @param columnWidths the natural width of each column, from {@link #calculateMaxWidths()}
+	 * @param availableWidth the total width available for the cells of a row 
+	 * @return the fitted widths, or <code>columnWidths</code> itself if they already fit
+	 */
+	static int[] fitColumnWidths(int[] columnWidths, int availableWidth) {
+		int totalWidth = 0;
+		for(int width : columnWidths) {
+			totalWidth += width;
+		}
+		if(totalWidth <= availableWidth) {
+			return columnWidths;
+		}
+		availableWidth = Math.max(availableWidth, 0);
+
+		int[] sorted = columnWidths.clone();
+		Arrays.sort(sorted);
+
+		// keep the narrowest columns while the rest can share out what is left at no less than their width
+		int keptWidth = 0;
+		int cut = 0;
+		int cutCount = 0;
+		for(int i = 0; i < sorted.length; i++) {
+			cutCount = sorted.length - i;
+			cut = (availableWidth - keptWidth) / cutCount;
+			if(cut < sorted[i]) {
+				break;
+			}
+			keptWidth += sorted[i];
+		}
+		int remainder = availableWidth - keptWidth - cut * cutCount;
+
+		int[] fitted = new int[columnWidths.length];
+		for(int i = 0; i < columnWidths.length; i++) {
+			if(columnWidths[i] <= cut) {
+				fitted[i] = columnWidths[i];
+			}
+			else if(remainder > 0) {
+				fitted[i] = cut + 1;
+				remainder--;
+			}
+			else {
+				fitted[i] = cut;
+			}
+		}
+		return fitted;
+	}
+
+    /**
+     * {@link #renderRow}, timed and counted in <code>statistics</code> if there is a {@link RenderListener}, 
+     * then appended to <code>out</code> if the table is being rendered line by line
+     */
+    private void renderLine(StringBuilder buf, Appendable out, Row rowType, int[] columnWidths, CellAccessor cells, 
+    		CellStyler styler, boolean timeCells, RenderStatistics statistics) throws IOException {
+    	if(statistics == null) {
+    		renderRow(buf, rowType, columnWidths, cells, styler, timeCells);
+    	}
+    	else {
+	    	int start = buf.length();
+	    	long startNanos = System.nanoTime();
+	    	renderRow(buf, rowType, columnWidths, cells, styler, timeCells);
+	    	long nanos = System.nanoTime() - startNanos;
+	    	if(rowType == Row.HDRDATA || rowType == Row.ROWDATA) {
+	    		statistics.dataRowNanos += nanos;
+	    		statistics.cellCount += columnWidths.length;
+	    	}
+	    	else {
+	    		statistics.ruleLineNanos += nanos;
+	    	}
+	    	statistics.charCount += buf.length() - start;
+    	}
+    	appendLines(buf, out, statistics);
+    }
+
+    /**
+     * append the lines in <code>buf</code> to <code>out</code> and empty it, if the table is being rendered line by line
+     */
+    private static void appendLines(StringBuilder buf, Appendable out, RenderStatistics statistics) throws IOException {
+    	if(out != null) {
+    		long startNanos = statistics == null ? 0 : System.nanoTime();
+    		out.append(buf);
+    		buf.setLength(0);
+    		if(statistics != null) {
+    			statistics.outputNanos += System.nanoTime() - startNanos;
+    		}
+    	}
+    }
+
+    /**
+     * render the top line, then the headings and the line below them if the table has headers, 
+     * or append the same lines from the last render if they were rendered for the same layout
+     */
+    private void renderHeaderLines(StringBuilder buf, Appendable out, int[] maxWidths, boolean timeCells, RenderStatistics statistics) throws IOException {
+    	HeaderLines lastLines = headerLines;
+    	if(lastLines != null && lastLines.isFor(this, maxWidths)) {
+    		buf.append(lastLines.lines);
+    		if(statistics != null) {
+    			statistics.charCount += lastLines.lines.length();
+    			statistics.cellCount += headers == null ? 0 : maxWidths.length;
+    		}
+    		appendLines(buf, out, statistics);
+    		return;
+    	}
+    	int start = buf.length();
+    	renderLine(buf, null, Row.TOP, maxWidths, null, null, timeCells, statistics);
+    	if (headers != null) {
+            renderLine(buf, null, Row.HDRDATA, maxWidths, shown(new ArrayRow(headers)), null, timeCells, statistics);
+            renderLine(buf, null, Row.HDRLINE, maxWidths, null, null, timeCells, statistics);
+        }
+    	headerLines = new HeaderLines(this, maxWidths.clone(), buf.substring(start));
+    	appendLines(buf, out, statistics);
+    }
+
+    /**
+     * The header lines of a render, with a snapshot of the layout they were rendered for: the headers and the columns shown, 
+     * their alignments, the style, padding and vertical lines, and the widths of the columns.
+     * The setters replace the arrays and objects they change rather than changing them, so they are compared by identity.
+     */
+    private static final class HeaderLines {
+
+    	private final Object[] headers;
+    	private final ColumnProjection projection;
+    	private final Aligned[] columnAlignments;
+    	private final CompiledStyle style;
+    	private final String leftColumnPadding;
+    	private final String rightColumnPadding;
+    	private final boolean showVerticalLines;
+    	private final int[] columnWidths;
+    	private final String lines;
+
+    	HeaderLines(ConsoleTable table, int[] columnWidths, String lines) {
+    		this.headers = table.headers;
+    		this.projection = table.projection;
+    		this.columnAlignments = table.columnAlignments;
+    		this.style = table.style;
+    		this.leftColumnPadding = table.leftColumnPadding;
+    		this.rightColumnPadding = table.rightColumnPadding;
+    		this.showVerticalLines = table.showVerticalLines;
+    		this.columnWidths = columnWidths;
+    		this.lines = lines;
+    	}
+
+    	/**
+    	 * @return true if these lines are the header lines of <code>table</code> with columns <code>columnWidths</code> wide
+    	 */
+    	boolean isFor(ConsoleTable table, int[] columnWidths) {
+    		return headers == table.headers && projection == table.projection && columnAlignments == table.columnAlignments
+    				&& style == table.style && leftColumnPadding.equals(table.leftColumnPadding) && rightColumnPadding.equals(table.rightColumnPadding)
+    				&& showVerticalLines == table.showVerticalLines && Arrays.equals(this.columnWidths, columnWidths);
+    	}
+    }
+
+    /**
+     * @param styler the style of each data cell, or null to write no styles
+     */
+    private void renderRow(StringBuilder buf, Row rowType, int[] columnWidths, CellAccessor cells, CellStyler styler, boolean timeCells) {
     	if(style.getPattern(rowType, Column.LEFT) == null) {
-    		return "";
+    		return;
     	}
 
-    	StringBuffer buf = new StringBuffer(rowWidth);
     	if(showVerticalLines) {
     		buf.append(style.getPattern(rowType, Column.LEFT));
     	}
         for (int i = 0; i < columnWidths.length; i++) {
         	
         	int columnWidth = columnWidths[i];
-        	String cellString = null;
-        	String leftCellPadding  = leftColumnPadding; 
-        	String rightCellPadding = rightColumnPadding;
         	
-    		Aligned columnAlign = alignment;
-    		
         	if(rowType == Row.HDRDATA || rowType == Row.ROWDATA ) {
-        		String cell = (cells == null || i > cells.length -1 || cells[i] == null) ? "" : cells[i].toString();
-        		
-        		if(headers != null && i < headers.length && headers[i] != null && headers[i] instanceof ColumnFormat) {
-        			columnAlign = ((ColumnFormat)headers[i]).getAlignment();
-            		if(columnAlign == Aligned.CENTRE) {
-            			// left pad <code>cell</code> so that it is centred
-            			int cellWidth = cell.codePointCount(0, cell.length());
-            			int leftPadWidth = (columnWidth - cellWidth+1) / 2;
-            			String padFormat = "%" + (leftPadWidth+cellWidth) + "s";
-						cell = String.format(padFormat, cell);
-            		}
+				buf.append(leftColumnPadding);
+
+				String cellStyle = null;
+				if(styler != null && rowType == Row.ROWDATA && cells != null && i < cells.columnCount()) {
+					cellStyle = styler.style(cells.cell(i), i);
+					if(cellStyle != null) {
+						buf.append(cellStyle);
+					}
+				}
+
+				// append the cell, then measure it and cut it or pad it where it is
+				int cellStart = buf.length();
+				if(cells != null && i < cells.columnCount()) {
+					if(timeCells) {
+						buf.append(cellString(cells.cell(i), i, true));
+					}
+					else {
+						cells.appendCell(i, buf);
+					}
+				}
+    			int cellWidth = Ansi.visibleWidth(buf, cellStart, buf.length());
+    			if(cellWidth > columnWidth) {
+    				// cut the cell short, leaving room for an ellipsis, and reset any style cut off within the cell
+    				if(columnWidth == 0) {
+    					buf.setLength(cellStart);
+    				}
+    				else {
+    					boolean hasEscape = Ansi.hasEscape(buf, cellStart, buf.length());
+    					buf.setLength(Ansi.visibleOffset(buf, cellStart, buf.length(), columnWidth - 1));
+    					buf.append(ELLIPSIS);
+    					if(hasEscape) {
+    						buf.append(Ansi.RESET);
+    					}
+    				}
+    				cellWidth = columnWidth;
+    			}
+
+        		Aligned columnAlign = i < columnAlignments.length ? columnAlignments[i] : alignment;
+        		int leftPadWidth;
+        		if(columnAlign == Aligned.RIGHT) {
+        			leftPadWidth = columnWidth - cellWidth;
+        		}
+        		else if(columnAlign == Aligned.CENTRE) {
+        			leftPadWidth = (columnWidth - cellWidth + 1) / 2;
+        		}
+        		else {
+        			leftPadWidth = 0;
         		}
 
-				String formatString = "%"+(columnAlign == Aligned.RIGHT ? "" : "-")+columnWidth+"s";
-				cellString = (columnWidth == 0) ? "" : String.format(formatString, cell);
+				insertSpaces(buf, cellStart, leftPadWidth);
+				appendRepeated(buf, SPACES, columnWidth - cellWidth - leftPadWidth);
+				if(cellStyle != null) {
+					buf.append(Ansi.RESET);
+				}
+				buf.append(rightColumnPadding);
         	}
         	else {	// this is a rule line between the rows of the table
         		
                	String ruleString = style.getPattern(rowType, Column.COLDATA);
-               	columnWidth = leftCellPadding.length() + columnWidth + rightCellPadding.length();
-    			cellString = String.join("", Collections.nCopies(columnWidth, ruleString)).substring(0,columnWidth);
-
-    			leftCellPadding  = "";
-    			rightCellPadding = "";
+               	appendRepeated(buf, ruleString, leftPaddingWidth + columnWidth + rightPaddingWidth);
         	}
 
-			String joinSep = showVerticalLines ? style.getPattern(rowType, Column.COLLINE) : " ";
 			boolean isLastCell = i == columnWidths.length - 1;
-        	
-			buf.append(leftCellPadding);
-   			buf.append(cellString);
-			buf.append(rightCellPadding);
-			
   	   		if(!isLastCell) {
-     			buf.append(joinSep);
+     			buf.append(showVerticalLines ? style.getPattern(rowType, Column.COLLINE) : " ");
     		}
          }
     	if(showVerticalLines) {
     		buf.append(style.getPattern(rowType, Column.RIGHT));
     	}
         buf.append("\n");
+    }
 
-        return buf.toString();
+    /**
+     * Insert <code>count</code> spaces at <code>offset</code>.
+     */
+    private static void insertSpaces(StringBuilder buf, int offset, int count) {
+    	for(int inserted = 0; inserted < count; inserted += SPACES.length()) {
+    		buf.insert(offset, SPACES, 0, Math.min(SPACES.length(), count - inserted));
+    	}
+    }
+
+    /**
+     * Append <code>pattern</code> repeatedly, cut off at exactly <code>width</code> chars.
+     */
+    private static void appendRepeated(StringBuilder buf, String pattern, int width) {
+    	if(pattern.isEmpty()) {
+    		return;
+    	}
+    	for(int appended = 0; appended < width; appended += pattern.length()) {
+    		buf.append(pattern, 0, Math.min(pattern.length(), width - appended));
+    	}
     }
 
 
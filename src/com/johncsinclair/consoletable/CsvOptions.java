@@ -0,0 +1,80 @@
+package com.johncsinclair.consoletable;
+
+/**
+ * How to read a CSV or TSV file into a {@link ConsoleTable} with {@link ConsoleTable#fromCsv(java.nio.file.Path, CsvOptions)}.
+ * <p>
+ * By default, fields are separated by commas, may be quoted with <code>"</code>, and the first line is the header. 
+ * The file must be encoded in UTF-8.
+ * <p>
+ * For example:
+ * <pre>
+ * ConsoleTable table = ConsoleTable.fromCsv(path, CsvOptions.tsv().withHeader(false));
+ * </pre>
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public class CsvOptions {
+
+	private char delimiter = ',';
+	private char quote = '"';
+	private boolean header = true;
+
+	/**
+	 * @return options for a comma separated file with a header line
+	 */
+	public static CsvOptions csv() {
+		return new CsvOptions();
+	}
+
+	/**
+	 * @return options for a tab separated file with a header line
+	 */
+	public static CsvOptions tsv() {
+		return new CsvOptions().withDelimiter('\t');
+	}
+
+	/**
+	 * @param delimiter the ASCII character between the fields of a line
+	 */
+	public CsvOptions withDelimiter(char delimiter) {
+		this.delimiter = ascii(delimiter, "delimiter");
+		return this;
+	}
+
+	/**
+	 * @param quote the ASCII character around a field which contains the delimiter or a line break. 
+	 * Inside a quoted field, a quote is written twice.
+	 */
+	public CsvOptions withQuote(char quote) {
+		this.quote = ascii(quote, "quote");
+		return this;
+	}
+
+	/**
+	 * @param header true if the first line of the file is the column headings, false if it is data 
+	 */
+	public CsvOptions withHeader(boolean header) {
+		this.header = header;
+		return this;
+	}
+
+	private static char ascii(char c, String name) {
+		if(c >= 0x80 || c == '\n' || c == '\r') {
+			throw new IllegalArgumentException("The " + name + " must be an ASCII character other than a line break: " + c);
+		}
+		return c;
+	}
+
+	char getDelimiter() {
+		return delimiter;
+	}
+
+	char getQuote() {
+		return quote;
+	}
+
+	boolean hasHeader() {
+		return header;
+	}
+
+}
@@ -0,0 +1,271 @@
+package com.johncsinclair.consoletable;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link RowSource} over a memory-mapped CSV or TSV file in UTF-8.
+ * <p>
+ * Each pass parses the records straight from the mapped bytes into the offsets of their fields. 
+ * The width of a field without escape sequences is counted from its bytes, so measuring the columns creates no <code>String</code>s, 
+ * and a field is only decoded into a <code>String</code> when it is rendered.
+ * <p>
+ * The file is mapped in chunks, each overlapping the next by the maximum record size, so that every record 
+ * starting in a chunk ends in the same chunk. The file is not held open once it has been mapped.
+ * 
+ * @see ConsoleTable#fromCsv(Path, CsvOptions)
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class CsvRows implements RowSource {
+
+	static final long CHUNK_SIZE = 1L << 30;
+	static final int  MAX_RECORD_SIZE = 1 << 24;
+
+	private final long chunkSize;
+	private final int maxRecordSize;
+	private final MappedByteBuffer[] chunks;
+	private final long size;
+	private final byte delimiter;
+	private final byte quote;
+	private final String[] headers;
+	private final long dataStart;
+
+	CsvRows(Path path, CsvOptions options) throws IOException {
+		this(path, options, CHUNK_SIZE, MAX_RECORD_SIZE);
+	}
+
+	CsvRows(Path path, CsvOptions options, long chunkSize, int maxRecordSize) throws IOException {
+		this.chunkSize = chunkSize;
+		this.maxRecordSize = maxRecordSize;
+		this.delimiter = (byte) options.getDelimiter();
+		this.quote = (byte) options.getQuote();
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			size = channel.size();
+			chunks = new MappedByteBuffer[(int) ((size + chunkSize - 1) / chunkSize)];
+			for(int i = 0; i < chunks.length; i++) {
+				long start = i * chunkSize;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, chunkSize + maxRecordSize));
+			}
+		}
+
+		long start = hasByteOrderMark() ? 3 : 0;
+		if(options.hasHeader() && start < size) {
+			CsvRow headerRow = new CsvRow();
+			start = headerRow.parse(start);
+			headers = new String[headerRow.columnCount()];
+			for(int i = 0; i < headers.length; i++) {
+				headers[i] = headerRow.cell(i);
+			}
+		}
+		else {
+			headers = null;
+		}
+		dataStart = start;
+	}
+
+	private boolean hasByteOrderMark() {
+		return size >= 3 && chunks[0].get(0) == (byte) 0xEF && chunks[0].get(1) == (byte) 0xBB && chunks[0].get(2) == (byte) 0xBF;
+	}
+
+	/**
+	 * @return the fields of the header line, or null if the file has no header
+	 */
+	String[] headers() {
+		return headers;
+	}
+
+	@Override
+	public Iterator<CsvRow> rows() {
+		final CsvRow row = new CsvRow();
+		return new Iterator<CsvRow>() {
+			private long position = dataStart;
+
+			@Override
+			public boolean hasNext() {
+				return position < size;
+			}
+
+			@Override
+			public CsvRow next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				position = row.parse(position);
+				return row;
+			}
+		};
+	}
+
+	/**
+	 * A {@link CellAccessor} for the fields of one record, as offsets into its mapped chunk.
+	 */
+	final class CsvRow implements CellAccessor {
+
+		private MappedByteBuffer chunk;
+		private int fieldCount;
+		private int[] starts = new int[16];
+		private int[] ends = new int[16];
+		private boolean[] quoted = new boolean[16];
+		private byte[] bytes = new byte[64];
+
+		/**
+		 * parse the record starting at <code>position</code> in the file
+		 * 
+		 * @return the position of the next record
+		 */
+		long parse(long position) {
+			int chunkIndex = (int) (position / chunkSize);
+			long chunkStart = chunkIndex * chunkSize;
+			chunk = chunks[chunkIndex];
+			int limit = chunk.limit();
+			int i = (int) (position - chunkStart);
+			fieldCount = 0;
+
+			if(chunk.get(i) == '\n' || chunk.get(i) == '\r') {
+				// a blank line is an empty row
+				return chunkStart + endOfLine(i, limit);
+			}
+			while(true) {
+				int start = i;
+				int end;
+				boolean isQuoted = i < limit && chunk.get(i) == quote;
+				if(isQuoted) {
+					start = ++i;
+					while(i < limit && (chunk.get(i) != quote || (i + 1 < limit && chunk.get(i + 1) == quote))) {
+						i += chunk.get(i) == quote ? 2 : 1;
+					}
+					end = Math.min(i, limit);
+					// skip the closing quote, and anything between it and the delimiter
+					while(i < limit && chunk.get(i) != delimiter && chunk.get(i) != '\n' && chunk.get(i) != '\r') {
+						i++;
+					}
+				}
+				else {
+					while(i < limit && chunk.get(i) != delimiter && chunk.get(i) != '\n' && chunk.get(i) != '\r') {
+						i++;
+					}
+					end = i;
+				}
+				addField(start, end, isQuoted);
+
+				if(i >= limit) {
+					if(chunkStart + limit < size) {
+						throw new IllegalStateException("The record at byte " + position + " is longer than the maximum of " + maxRecordSize + " bytes");
+					}
+					return chunkStart + limit;
+				}
+				if(chunk.get(i) == delimiter) {
+					i++;
+				}
+				else {
+					return chunkStart + endOfLine(i, limit);
+				}
+			}
+		}
+
+		/**
+		 * @return the index after the line break at <code>i</code>, which may be <code>\n</code>, <code>\r\n</code> or <code>\r</code>
+		 */
+		private int endOfLine(int i, int limit) {
+			if(chunk.get(i) == '\r' && i + 1 < limit && chunk.get(i + 1) == '\n') {
+				return i + 2;
+			}
+			return i + 1;
+		}
+
+		private void addField(int start, int end, boolean isQuoted) {
+			if(fieldCount == starts.length) {
+				starts = Arrays.copyOf(starts, fieldCount * 2);
+				ends = Arrays.copyOf(ends, fieldCount * 2);
+				quoted = Arrays.copyOf(quoted, fieldCount * 2);
+			}
+			starts[fieldCount] = start;
+			ends[fieldCount] = end;
+			quoted[fieldCount] = isQuoted;
+			fieldCount++;
+		}
+
+		@Override
+		public int columnCount() {
+			return fieldCount;
+		}
+
+		/**
+		 * @return the field decoded from UTF-8, with any doubled quotes in a quoted field made single
+		 */
+		@Override
+		public String cell(int column) {
+			int start = starts[column];
+			int end = ends[column];
+			if(bytes.length < end - start) {
+				bytes = new byte[Math.max(end - start, bytes.length * 2)];
+			}
+			int length = 0;
+			if(quoted[column]) {
+				for(int i = start; i < end; i++) {
+					byte b = chunk.get(i);
+					bytes[length++] = b;
+					if(b == quote) {
+						i++;
+					}
+				}
+			}
+			else {
+				length = end - start;
+				chunk.get(start, bytes, 0, length);
+			}
+			return new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @return the number of code points in the field outside any escape sequences, counted from its UTF-8 bytes without decoding them, 
+		 * unless the field has an escape sequence, when it is decoded to skip them
+		 */
+		@Override
+		public int cellWidth(int column) {
+			int width = 0;
+			for(int i = starts[column]; i < ends[column]; i++) {
+				byte b = chunk.get(i);
+				if(b == Ansi.ESC) {
+					return Ansi.visibleWidth(cell(column));
+				}
+				if((b & 0xC0) != 0x80) {
+					width++;
+				}
+				if(quoted[column] && b == quote) {
+					i++;
+				}
+			}
+			return width;
+		}
+
+		/**
+		 * append an ASCII field straight from its bytes, and decode any other field with {@link #cell(int)}
+		 */
+		@Override
+		public void appendCell(int column, StringBuilder out) {
+			int mark = out.length();
+			for(int i = starts[column]; i < ends[column]; i++) {
+				byte b = chunk.get(i);
+				if(b < 0) {
+					out.setLength(mark);
+					out.append(cell(column));
+					return;
+				}
+				out.append((char) b);
+				if(quoted[column] && b == quote) {
+					i++;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.johncsinclair.consoletable;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+import com.johncsinclair.consoletable.ArrayRows.ArrayRow;
+
+/**
+ * The rows of a {@link ConsoleTable} which pass its filter. The filter is evaluated in one pass over the rows, 
+ * which marks the position of each row that passes in a <code>BitSet</code>, and later passes select the same rows from the bits.
+ * 
+ * @see ConsoleTable#withFilter(Predicate)
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class FilteredRows {
+
+	private static final Object[] NO_CELLS = new Object[0];
+
+	private FilteredRows() {
+	}
+
+	/**
+	 * @return the <code>rows</code> for which <code>filter</code> is true, setting the bit in <code>passing</code> at the position of each of them
+	 */
+	static Iterator<CellAccessor> filter(final Iterator<? extends CellAccessor> rows, final Predicate<Object[]> filter, final BitSet passing) {
+		return new Skipping(rows) {
+			private Object[] cells = NO_CELLS;
+
+			@Override
+			boolean passes(CellAccessor row, int position) {
+				if(filter.test(cellsOf(row))) {
+					passing.set(position);
+					return true;
+				}
+				return false;
+			}
+
+			/**
+			 * @return the cells of <code>row</code>, in an array which is reused unless the row is an <code>Object[]</code>
+			 */
+			private Object[] cellsOf(CellAccessor row) {
+				if(row instanceof ArrayRow) {
+					Object[] rowCells = ((ArrayRow) row).cells;
+					return rowCells == null ? NO_CELLS : rowCells;
+				}
+				if(cells.length != row.columnCount()) {
+					cells = new Object[row.columnCount()];
+				}
+				for(int i = 0; i < cells.length; i++) {
+					cells[i] = row.cell(i);
+				}
+				return cells;
+			}
+		};
+	}
+
+	/**
+	 * @return the <code>rows</code> at the positions set in <code>passing</code>
+	 */
+	static Iterator<CellAccessor> select(final Iterator<? extends CellAccessor> rows, final BitSet passing) {
+		return new Skipping(rows) {
+			@Override
+			boolean passes(CellAccessor row, int position) {
+				return passing.get(position);
+			}
+		};
+	}
+
+	/**
+	 * An iterator over the rows which pass, which looks ahead for the next one in <code>hasNext()</code>
+	 */
+	private abstract static class Skipping implements Iterator<CellAccessor> {
+
+		private final Iterator<? extends CellAccessor> rows;
+		private int position = 0;
+		private CellAccessor next;
+
+		Skipping(Iterator<? extends CellAccessor> rows) {
+			this.rows = rows;
+		}
+
+		abstract boolean passes(CellAccessor row, int position);
+
+		@Override
+		public boolean hasNext() {
+			while(next == null && rows.hasNext()) {
+				CellAccessor row = rows.next();
+				if(passes(row, position++)) {
+					next = row;
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public CellAccessor next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			CellAccessor row = next;
+			next = null;
+			return row;
+		}
+	}
+
+}
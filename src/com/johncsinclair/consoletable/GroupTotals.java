@@ -0,0 +1,271 @@
+package com.johncsinclair.consoletable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The subtotal row of each group and the grand total row of a {@link ConsoleTable}, accumulated in one pass over the rows.
+ * A group is a run of rows with equal cells in the group column, so only the totals are kept, never the rows of a group.
+ * 
+ * @see ConsoleTable#withGroupBy(int)
+ * @see ConsoleTable#withAggregate(int, Aggregate)
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class GroupTotals {
+
+	static final String TOTAL = "Total";
+
+	private final int groupColumn;
+	private final Aggregate[] aggregates;
+	private final boolean hasAggregates;
+	private final List<Object[]> subtotals = new ArrayList<>();
+	private Object[] grandTotal;
+
+	/**
+	 * @param groupColumn the column of the group keys, or -1 for only a grand total
+	 * @param aggregates the aggregate of each column, null for a column which is not totalled
+	 */
+	GroupTotals(int groupColumn, Aggregate[] aggregates) {
+		this.groupColumn = groupColumn;
+		this.aggregates = aggregates;
+		boolean hasAggregates = false;
+		for(Aggregate aggregate : aggregates) {
+			hasAggregates |= aggregate != null;
+		}
+		this.hasAggregates = hasAggregates;
+	}
+
+	/**
+	 * accumulate the totals of <code>rows</code>
+	 */
+	void add(Iterator<? extends CellAccessor> rows) {
+		Accumulator[] group = accumulators();
+		Accumulator[] all = accumulators();
+		Object key = null;
+		boolean first = true;
+		while(rows.hasNext()) {
+			CellAccessor row = rows.next();
+			if(groupColumn >= 0) {
+				Object rowKey = cellOf(row, groupColumn);
+				if(!first && !Objects.equals(rowKey, key)) {
+					subtotals.add(totalRow(key, group));
+					group = accumulators();
+				}
+				key = rowKey;
+			}
+			first = false;
+			for(int i = 0; i < aggregates.length; i++) {
+				if(aggregates[i] != null) {
+					Object cell = cellOf(row, i);
+					group[i].add(cell);
+					all[i].add(cell);
+				}
+			}
+		}
+		if(!first && groupColumn >= 0) {
+			subtotals.add(totalRow(key, group));
+		}
+		grandTotal = totalRow(TOTAL, all);
+	}
+
+	/**
+	 * @return the cell of <code>row</code> in the group column, or null if there is no group column
+	 */
+	Object groupKey(CellAccessor row) {
+		return groupColumn < 0 ? null : cellOf(row, groupColumn);
+	}
+
+	boolean hasGroups() {
+		return groupColumn >= 0;
+	}
+
+	/**
+	 * @return the subtotal row of each group in order, each null if there are no aggregates
+	 */
+	List<Object[]> subtotals() {
+		return subtotals;
+	}
+
+	/**
+	 * @return the grand total row, or null if there are no aggregates
+	 */
+	Object[] grandTotal() {
+		return grandTotal;
+	}
+
+	/**
+	 * @return the widest cell of each column of the total rows
+	 */
+	int[] columnWidths() {
+		int[] widths = new int[0];
+		List<Object[]> totalRows = new ArrayList<>(subtotals);
+		totalRows.add(grandTotal);
+		for(Object[] totalRow : totalRows) {
+			if(totalRow != null) {
+				if(totalRow.length > widths.length) {
+					widths = Arrays.copyOf(widths, totalRow.length);
+				}
+				for(int i = 0; i < totalRow.length; i++) {
+					if(totalRow[i] != null) {
+						widths[i] = Math.max(widths[i], Ansi.visibleWidth(totalRow[i].toString()));
+					}
+				}
+			}
+		}
+		return widths;
+	}
+
+	private Accumulator[] accumulators() {
+		Accumulator[] accumulators = new Accumulator[aggregates.length];
+		for(int i = 0; i < aggregates.length; i++) {
+			if(aggregates[i] != null) {
+				accumulators[i] = new Accumulator();
+			}
+		}
+		return accumulators;
+	}
+
+	/**
+	 * @return the row of the totals in <code>accumulators</code>, labelled in the group column, or in the first column 
+	 * if there is no group column, unless that column has a total
+	 */
+	private Object[] totalRow(Object label, Accumulator[] accumulators) {
+		if(!hasAggregates) {
+			return null;
+		}
+		int labelColumn = Math.max(groupColumn, 0);
+		Object[] totalRow = new Object[Math.max(aggregates.length, labelColumn + 1)];
+		totalRow[labelColumn] = label;
+		for(int i = 0; i < aggregates.length; i++) {
+			if(aggregates[i] != null) {
+				totalRow[i] = accumulators[i].total(aggregates[i]);
+			}
+		}
+		return totalRow;
+	}
+
+	private static Object cellOf(CellAccessor row, int column) {
+		return column < row.columnCount() ? row.cell(column) : null;
+	}
+
+	/**
+	 * The running totals of one column, kept as primitives, 
+	 * and as a <code>BigDecimal</code> for any <code>BigDecimal</code> or <code>BigInteger</code> cells, so that money adds up exactly
+	 */
+	private static final class Accumulator {
+
+		private long count;
+		private long numberCount;
+		private boolean fractional;
+		private long wholeCount;
+		private long wholeSum;
+		private long wholeMin = Long.MAX_VALUE;
+		private long wholeMax = Long.MIN_VALUE;
+		private double sum;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+		// the BigDecimal and BigInteger cells, and any whole sum which overflows a long, totalled exactly unless there are also float or double cells
+		private boolean bigFractional;
+		private BigDecimal bigSum;
+		private BigDecimal bigMin;
+		private BigDecimal bigMax;
+
+		void add(Object cell) {
+			if(cell == null) {
+				return;
+			}
+			count++;
+			// cells stored off the heap, or read from text, are the Strings they display
+			Object number = cell instanceof Number ? cell : RowSorter.parseNumber(cell);
+			if(!(number instanceof Number)) {
+				return;
+			}
+			if(number instanceof Double && !(cell instanceof Number)) {
+				// text with a fraction, such as an amount of money in a CSV file, is totalled exactly
+				number = new BigDecimal(cell.toString());
+			}
+			numberCount++;
+			double value = ((Number) number).doubleValue();
+			sum += value;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			if(RowSorter.isWholeNumber(number)) {
+				long wholeValue = ((Number) number).longValue();
+				wholeCount++;
+				try {
+					wholeSum = Math.addExact(wholeSum, wholeValue);
+				}
+				catch(ArithmeticException overflow) {
+					// carry on from the whole sum in the exact sum, which is totalled with the whole sum
+					BigDecimal carried = BigDecimal.valueOf(wholeSum).add(BigDecimal.valueOf(wholeValue));
+					bigSum = bigSum == null ? carried : bigSum.add(carried);
+					wholeSum = 0;
+				}
+				wholeMin = Math.min(wholeMin, wholeValue);
+				wholeMax = Math.max(wholeMax, wholeValue);
+			}
+			else if(number instanceof BigDecimal || number instanceof BigInteger) {
+				BigDecimal bigValue = number instanceof BigDecimal ? (BigDecimal) number : new BigDecimal((BigInteger) number);
+				bigFractional |= number instanceof BigDecimal;
+				bigSum = bigSum == null ? bigValue : bigSum.add(bigValue);
+				bigMin = bigMin == null || bigValue.compareTo(bigMin) < 0 ? bigValue : bigMin;
+				bigMax = bigMax == null || bigValue.compareTo(bigMax) > 0 ? bigValue : bigMax;
+			}
+			else {
+				fractional = true;
+			}
+		}
+
+		/**
+		 * @return the total as a <code>Long</code>, a <code>Double</code>, or a <code>BigDecimal</code> or <code>BigInteger</code> 
+		 * if the column has any and no <code>float</code> or <code>double</code> cells, or null if there are no numbers to total
+		 */
+		Object total(Aggregate aggregate) {
+			if(aggregate == Aggregate.COUNT) {
+				return count;
+			}
+			if(numberCount == 0) {
+				return null;
+			}
+			if(bigSum != null && !fractional) {
+				return exactTotal(aggregate);
+			}
+			switch(aggregate) {
+			case SUM:
+				return fractional ? (Object) sum : (Object) wholeSum;
+			case MIN:
+				return fractional ? (Object) min : (Object) wholeMin;
+			case MAX:
+				return fractional ? (Object) max : (Object) wholeMax;
+			default:
+				return sum / numberCount;
+			}
+		}
+
+		private Object exactTotal(Aggregate aggregate) {
+			BigDecimal total;
+			switch(aggregate) {
+			case SUM:
+				total = bigSum.add(BigDecimal.valueOf(wholeSum));
+				break;
+			case MIN:
+				total = bigMin == null || wholeCount > 0 && BigDecimal.valueOf(wholeMin).compareTo(bigMin) < 0 ? BigDecimal.valueOf(wholeMin) : bigMin;
+				break;
+			case MAX:
+				total = bigMax == null || wholeCount > 0 && BigDecimal.valueOf(wholeMax).compareTo(bigMax) > 0 ? BigDecimal.valueOf(wholeMax) : bigMax;
+				break;
+			default:
+				return bigSum.add(BigDecimal.valueOf(wholeSum)).divide(BigDecimal.valueOf(numberCount), MathContext.DECIMAL64);
+			}
+			return bigFractional ? (Object) total : (Object) total.toBigInteger();
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.johncsinclair.consoletable;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.johncsinclair.consoletable.ColumnFormat.Highlight;
+
+/**
+ * The highlights of the {@link ColumnFormat}s of a {@link ConsoleTable}, compiled once for each render into flat arrays for each column shown,
+ * so that the cells are styled without looking up their column's format.
+ * <p>
+ * A whole number cell is compared with its threshold as a <code>long</code>, and any other number as a <code>double</code>, without boxing.
+ * Cells which no highlight matches are styled by the table's {@link CellStyler}, if it has one.
+ *
+ * @see ColumnFormat#withHighlightAbove(double, String)
+ *
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class HighlightRules implements CellStyler {
+
+	private final ColumnRules[] columns;
+	private final CellStyler otherwise;
+
+	/**
+	 * @param columnCount the number of columns shown
+	 * @param otherwise the styler for the cells no highlight matches, or null
+	 */
+	HighlightRules(int columnCount, CellStyler otherwise) {
+		this.columns = new ColumnRules[columnCount];
+		this.otherwise = otherwise;
+	}
+
+	/**
+	 * compile the highlights of <code>format</code> for the column shown at <code>column</code>
+	 */
+	void compile(int column, ColumnFormat format) {
+		columns[column] = new ColumnRules(format.highlights());
+	}
+
+	@Override
+	public String style(Object cell, int column) {
+		String style = null;
+		if(cell != null && column < columns.length && columns[column] != null) {
+			style = columns[column].style(cell);
+		}
+		return style == null && otherwise != null ? otherwise.style(cell, column) : style;
+	}
+
+	private static final class ColumnRules {
+
+		private final int[] kinds;
+		/** the thresholds for whole numbers, v &gt; t is v &gt; floor(t) and v &lt; t is v &lt; ceil(t) */
+		private final long[] wholeThresholds;
+		private final double[] thresholds;
+		private final Predicate<Object>[] conditions;
+		private final String[] styles;
+		private final boolean numericOnly;
+
+		@SuppressWarnings("unchecked")
+		ColumnRules(List<Highlight> highlights) {
+			int count = highlights.size();
+			kinds = new int[count];
+			wholeThresholds = new long[count];
+			thresholds = new double[count];
+			conditions = (Predicate<Object>[]) new Predicate<?>[count];
+			styles = new String[count];
+			boolean numericOnly = true;
+			for(int i = 0; i < count; i++) {
+				Highlight highlight = highlights.get(i);
+				kinds[i] = highlight.kind;
+				thresholds[i] = highlight.threshold;
+				wholeThresholds[i] = (long) (highlight.kind == Highlight.ABOVE ? Math.floor(highlight.threshold) : Math.ceil(highlight.threshold));
+				conditions[i] = highlight.condition;
+				styles[i] = highlight.style;
+				numericOnly &= highlight.kind != Highlight.WHEN;
+			}
+			this.numericOnly = numericOnly;
+		}
+
+		/**
+		 * @return the style of the first highlight which matches <code>cell</code>, or null if none match
+		 */
+		String style(Object cell) {
+			// text which displays as a number, such as a field of a CSV file, is compared by its value
+			Object number = cell instanceof Number ? cell : RowSorter.parseNumber(cell);
+			if(RowSorter.isWholeNumber(number)) {
+				long value = ((Number) number).longValue();
+				for(int i = 0; i < kinds.length; i++) {
+					if(kinds[i] == Highlight.ABOVE ? value > wholeThresholds[i] 
+							: kinds[i] == Highlight.BELOW ? value < wholeThresholds[i] : conditions[i].test(cell)) {
+						return styles[i];
+					}
+				}
+			}
+			else if(number instanceof Number) {
+				double value = ((Number) number).doubleValue();
+				for(int i = 0; i < kinds.length; i++) {
+					if(kinds[i] == Highlight.ABOVE ? value > thresholds[i] 
+							: kinds[i] == Highlight.BELOW ? value < thresholds[i] : conditions[i].test(cell)) {
+						return styles[i];
+					}
+				}
+			}
+			else if(!numericOnly) {
+				for(int i = 0; i < kinds.length; i++) {
+					if(kinds[i] == Highlight.WHEN && conditions[i].test(cell)) {
+						return styles[i];
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+}
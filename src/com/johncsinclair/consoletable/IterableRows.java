@@ -0,0 +1,129 @@
+package com.johncsinclair.consoletable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A {@link RowSource} which is a view of the caller's nested collections, such as a <code>List&lt;List&lt;Object&gt;&gt;</code>, 
+ * reading the cells of each row where they are without copying them into an <code>Object[]</code>. 
+ * Changes to the collections are seen by the next render.
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class IterableRows implements RowSource {
+
+	private final Iterable<? extends Iterable<?>> rows;
+
+	IterableRows(Iterable<? extends Iterable<?>> rows) {
+		this.rows = rows;
+	}
+
+	@Override
+	public Iterator<IterableRow> rows() {
+		final Iterator<? extends Iterable<?>> iterator = rows.iterator();
+		final IterableRow row = new IterableRow();
+		return new Iterator<IterableRow>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public IterableRow next() {
+				row.reset(iterator.next());
+				return row;
+			}
+		};
+	}
+
+	/**
+	 * A {@link CellAccessor} for one row, which may be null for an empty row. 
+	 * A <code>RandomAccess</code> list is read by index, any other <code>Iterable</code> is read with an iterator, 
+	 * which carries on from the last cell read because the cells are usually read in column order.
+	 * A row which is read out of order, such as when the columns are reordered, is copied once into an array kept for the next row.
+	 */
+	static final class IterableRow implements CellAccessor {
+
+		private Iterable<?> cells;
+		private List<?> list;
+		private int columnCount;
+		private Iterator<?> iterator;
+		private int nextColumn;
+		/** the cells of a row read out of order, or null if the row is read with its iterator */
+		private Object[] copied;
+		private Object[] scratch = new Object[0];
+
+		void reset(Iterable<?> cells) {
+			if(copied != null) {
+				// let go of the cells of the last row
+				Arrays.fill(copied, null);
+				copied = null;
+			}
+			this.cells = cells;
+			this.list = cells instanceof List && cells instanceof RandomAccess ? (List<?>) cells : null;
+			this.columnCount = -1;
+			this.iterator = null;
+		}
+
+		@Override
+		public int columnCount() {
+			if(columnCount < 0) {
+				if(cells == null) {
+					columnCount = 0;
+				}
+				else if(cells instanceof Collection) {
+					columnCount = ((Collection<?>) cells).size();
+				}
+				else {
+					columnCount = 0;
+					for(Iterator<?> counter = cells.iterator(); counter.hasNext(); counter.next()) {
+						columnCount++;
+					}
+				}
+			}
+			return columnCount;
+		}
+
+		@Override
+		public Object cell(int column) {
+			if(list != null) {
+				return list.get(column);
+			}
+			if(copied != null) {
+				return copied[column];
+			}
+			if(column < nextColumn) {
+				copied = copy();
+				return copied[column];
+			}
+			if(iterator == null) {
+				iterator = cells.iterator();
+				nextColumn = 0;
+			}
+			for(; nextColumn < column; nextColumn++) {
+				iterator.next();
+			}
+			nextColumn++;
+			return iterator.next();
+		}
+
+		/**
+		 * @return the cells of the row, in the scratch array, which is grown if the row does not fit
+		 */
+		private Object[] copy() {
+			int count = columnCount();
+			if(scratch.length < count) {
+				scratch = new Object[count];
+			}
+			Iterator<?> all = cells.iterator();
+			for(int i = 0; i < count; i++) {
+				scratch[i] = all.next();
+			}
+			return scratch;
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.johncsinclair.consoletable;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * A {@link ConsoleTable} redrawn in place on an ANSI terminal each time its rows change, such as a table of statistics refreshed every second.
+ * The first {@link #update()} prints the whole table, and each later update moves the cursor with ANSI escape sequences
+ * to rewrite only the parts of the lines which have changed, leaving the cursor below the table.
+ * <p>
+ * The columns keep their widths from one update to the next, and only widen when a cell needs more room, so that the unchanged cells stay where they are.
+ * They are measured afresh when the headers or the columns shown are changed.
+ * <p>
+ * For example:
+ * <pre>
+ * LiveView view = hostTable.liveView(System.out);
+ * while(true) {
+ *     view.update();
+ *     Thread.sleep(1000);
+ * }
+ * </pre>
+ *
+ * @see ConsoleTable#liveView(Appendable)
+ *
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public final class LiveView {
+
+	private static final String CSI = "\u001B[";
+
+	private final ConsoleTable table;
+	private final Appendable out;
+	private final StringBuilder escapes = new StringBuilder();
+	private String[] lines;
+	/** the widths of the columns of the last frame, before they were fitted to the maximum width */
+	private int[] columnWidths;
+	private int columnsVersion;
+
+	LiveView(ConsoleTable table, Appendable out) {
+		this.table = table;
+		this.out = Objects.requireNonNull(out, "out");
+	}
+
+	/**
+	 * Render the table, and redraw the parts of it which have changed since the last update.
+	 *
+	 * @return the number of chars written to the terminal
+	 * @throws IOException if the terminal throws an IOException
+	 */
+	public int update() throws IOException {
+		boolean sameColumns = lines != null && columnsVersion == table.columnsVersion();
+		columnsVersion = table.columnsVersion();
+		int[][] frameWidths = new int[1][];
+		String frame = table.render(sameColumns ? columnWidths : null, frameWidths);
+		columnWidths = frameWidths[0];
+		String[] newLines = frame.split("\n");
+		escapes.setLength(0);
+		if(lines == null) {
+			escapes.append(frame);
+		}
+		else {
+			// the cursor starts at the beginning of the line below the table
+			int cursor = lines.length;
+			for(int i = 0; i < Math.min(lines.length, newLines.length); i++) {
+				if(!lines[i].equals(newLines[i])) {
+					moveDown(i - cursor);
+					cursor = i;
+					redrawLine(lines[i], newLines[i]);
+				}
+			}
+			if(newLines.length > lines.length) {
+				moveDown(lines.length - cursor);
+				escapes.append('\r');
+				for(int i = lines.length; i < newLines.length; i++) {
+					escapes.append(newLines[i]).append('\n');
+				}
+			}
+			else if(cursor != newLines.length) {
+				moveDown(newLines.length - cursor);
+				escapes.append('\r');
+				if(newLines.length < lines.length) {
+					// erase the lines left below the shorter table
+					escapes.append(CSI).append('J');
+				}
+			}
+		}
+		lines = newLines;
+		out.append(escapes);
+		if(out instanceof Flushable) {
+			((Flushable) out).flush();
+		}
+		return escapes.length();
+	}
+
+	/**
+	 * move the cursor down <code>count</code> lines, or up if it is negative
+	 */
+	private void moveDown(int count) {
+		if(count > 0) {
+			escapes.append(CSI).append(count).append('B');
+		}
+		else if(count < 0) {
+			escapes.append(CSI).append(-count).append('A');
+		}
+	}
+
+	/**
+	 * rewrite the part of the line the cursor is on from the first char which differs to the last char which differs,
+	 * or to the end of the line if its length has changed.
+	 * A line with ANSI styles is rewritten whole, so that each char is written in its own style.
+	 */
+	private void redrawLine(String oldLine, String newLine) {
+		if(oldLine.indexOf(Ansi.ESC) >= 0 || newLine.indexOf(Ansi.ESC) >= 0) {
+			escapes.append('\r').append(newLine).append(CSI).append('K');
+			return;
+		}
+		int first = 0;
+		while(first < oldLine.length() && first < newLine.length() && oldLine.charAt(first) == newLine.charAt(first)) {
+			first++;
+		}
+		if(first > 0 && first < newLine.length() && Character.isLowSurrogate(newLine.charAt(first))) {
+			first--;
+		}
+		// the cursor column is 1 based, and counts code points
+		escapes.append(CSI).append(newLine.codePointCount(0, first) + 1).append('G');
+		if(oldLine.length() == newLine.length()) {
+			int last = newLine.length();
+			while(oldLine.charAt(last - 1) == newLine.charAt(last - 1)) {
+				last--;
+			}
+			if(last < newLine.length() && Character.isLowSurrogate(newLine.charAt(last))) {
+				last++;
+			}
+			escapes.append(newLine, first, last);
+		}
+		else {
+			escapes.append(newLine, first, newLine.length());
+			escapes.append(CSI).append('K');
+		}
+	}
+
+}
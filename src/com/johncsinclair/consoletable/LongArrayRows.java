@@ -0,0 +1,89 @@
+package com.johncsinclair.consoletable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link RowSource} over rows of <code>long</code>s, which measures the cells by counting their digits 
+ * and appends them with <code>StringBuilder.append(long)</code>.
+ * 
+ * @see RowSource#of(long[][])
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class LongArrayRows implements RowSource {
+
+	private final long[][] rows;
+
+	LongArrayRows(long[][] rows) {
+		this.rows = rows;
+	}
+
+	@Override
+	public Iterator<LongArrayRow> rows() {
+		final LongArrayRow row = new LongArrayRow();
+		return new Iterator<LongArrayRow>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < rows.length;
+			}
+
+			@Override
+			public LongArrayRow next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				row.cells = rows[next++];
+				return row;
+			}
+		};
+	}
+
+	static final class LongArrayRow implements CellAccessor {
+
+		private long[] cells;
+
+		@Override
+		public int columnCount() {
+			return cells == null ? 0 : cells.length;
+		}
+
+		@Override
+		public Object cell(int column) {
+			return cells[column];
+		}
+
+		@Override
+		public int cellWidth(int column) {
+			return width(cells[column]);
+		}
+
+		@Override
+		public void appendCell(int column, StringBuilder out) {
+			out.append(cells[column]);
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(cells);
+		}
+	}
+
+	/**
+	 * @return the number of chars in the decimal representation of <code>value</code>
+	 */
+	static int width(long value) {
+		if(value == Long.MIN_VALUE) {
+			return 20;
+		}
+		int width = value < 0 ? 2 : 1;
+		for(long remaining = Math.abs(value); remaining >= 10; remaining /= 10) {
+			width++;
+		}
+		return width;
+	}
+
+}
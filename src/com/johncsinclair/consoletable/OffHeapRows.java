@@ -0,0 +1,257 @@
+package com.johncsinclair.consoletable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link RowSource} which keeps its rows outside the Java heap, in direct <code>ByteBuffer</code> blocks,
+ * so that the garbage collector never has to trace them. Each cell is stored as its display width and its
+ * <code>toString()</code> encoded as UTF-8, and the widest cell of each column is kept as the rows are added,
+ * so the table does not have to read the rows to measure the columns.
+ * <p>
+ * Each row is one record in a single block:
+ * <pre>
+ * int columnCount, then for each cell: int width, int byteLength (-1 for a null cell), byte[byteLength] utf8
+ * </pre>
+ *
+ * @see ConsoleTable#withOffHeapRows()
+ *
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class OffHeapRows implements RowSource {
+
+	static final int BLOCK_SIZE = 1 << 20;
+
+	private final int blockSize;
+	private final List<ByteBuffer> blocks = new ArrayList<>();
+	private ByteBuffer block;
+	private int[] maxWidths = new int[0];
+	private int size;
+
+	OffHeapRows() {
+		this(BLOCK_SIZE);
+	}
+
+	OffHeapRows(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * encode <code>cells</code> as a record at the end of the last block, in a new block if it does not fit
+	 *
+	 * @param cells the row, which may be null for an empty row
+	 */
+	void add(Object[] cells) {
+		String[] cellStrings = cellStrings(cells);
+		long recordSize = recordSize(cellStrings);
+		if(block == null || block.remaining() < recordSize) {
+			if(recordSize > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("The row is too long to store off the heap");
+			}
+			block = ByteBuffer.allocateDirect(Math.max(blockSize, (int) recordSize));
+			blocks.add(block);
+		}
+		maxWidths = putRecord(block, cellStrings, maxWidths);
+		size++;
+	}
+
+	/**
+	 * @return the <code>toString()</code> of each cell, null for a null cell
+	 */
+	static String[] cellStrings(Object[] cells) {
+		String[] cellStrings = new String[cells == null ? 0 : cells.length];
+		for(int i = 0; i < cellStrings.length; i++) {
+			cellStrings[i] = cells[i] == null ? null : cells[i].toString();
+		}
+		return cellStrings;
+	}
+
+	/**
+	 * @return the most bytes the record of <code>cellStrings</code> can take
+	 */
+	static long recordSize(String[] cellStrings) {
+		// a char takes at most 3 bytes in UTF-8, a surrogate pair takes 4 for its 2 chars
+		long recordSize = Integer.BYTES;
+		for(String cellString : cellStrings) {
+			recordSize += 2 * Integer.BYTES + (cellString == null ? 0 : 3L * cellString.length());
+		}
+		return recordSize;
+	}
+
+	/**
+	 * put the record of <code>cellStrings</code> into <code>out</code>, which must have room for {@link #recordSize(String[])} bytes
+	 *
+	 * @return <code>maxWidths</code>, widened to fit the cells
+	 */
+	static int[] putRecord(ByteBuffer out, String[] cellStrings, int[] maxWidths) {
+		if(cellStrings.length > maxWidths.length) {
+			maxWidths = Arrays.copyOf(maxWidths, cellStrings.length);
+		}
+		out.putInt(cellStrings.length);
+		for(int i = 0; i < cellStrings.length; i++) {
+			int width = 0;
+			if(cellStrings[i] == null) {
+				out.putInt(0);
+				out.putInt(-1);
+			}
+			else {
+				int cellStart = out.position();
+				out.position(cellStart + 2 * Integer.BYTES);
+				width = Ansi.visibleWidth(cellStrings[i]);
+				encode(cellStrings[i], out);
+				out.putInt(cellStart, width);
+				out.putInt(cellStart + Integer.BYTES, out.position() - cellStart - 2 * Integer.BYTES);
+			}
+			maxWidths[i] = Math.max(maxWidths[i], width);
+		}
+		return maxWidths;
+	}
+
+	/**
+	 * put <code>cellString</code> into <code>out</code> as UTF-8, with an unpaired surrogate as <code>?</code>
+	 */
+	private static void encode(String cellString, ByteBuffer out) {
+		for(int i = 0; i < cellString.length(); i++) {
+			char c = cellString.charAt(i);
+			if(c < 0x80) {
+				out.put((byte) c);
+			}
+			else if(c < 0x800) {
+				out.put((byte) (0xC0 | c >> 6));
+				out.put((byte) (0x80 | c & 0x3F));
+			}
+			else if(Character.isHighSurrogate(c) && i + 1 < cellString.length() && Character.isLowSurrogate(cellString.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, cellString.charAt(++i));
+				out.put((byte) (0xF0 | codePoint >> 18));
+				out.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				out.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				out.put((byte) (0x80 | codePoint & 0x3F));
+			}
+			else if(Character.isSurrogate(c)) {
+				out.put((byte) '?');
+			}
+			else {
+				out.put((byte) (0xE0 | c >> 12));
+				out.put((byte) (0x80 | c >> 6 & 0x3F));
+				out.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	int size() {
+		return size;
+	}
+
+	@Override
+	public int[] columnWidths() {
+		return maxWidths.clone();
+	}
+
+	@Override
+	public Iterator<OffHeapRow> rows() {
+		final OffHeapRow row = new OffHeapRow();
+		return new Iterator<OffHeapRow>() {
+			private int blockIndex = 0;
+			private int position = 0;
+
+			@Override
+			public boolean hasNext() {
+				while(blockIndex < blocks.size() && position >= blocks.get(blockIndex).position()) {
+					blockIndex++;
+					position = 0;
+				}
+				return blockIndex < blocks.size();
+			}
+
+			@Override
+			public OffHeapRow next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				position = row.read(blocks.get(blockIndex), position);
+				return row;
+			}
+		};
+	}
+
+	/**
+	 * A {@link CellAccessor} for the record at a position in a block, or in any <code>ByteBuffer</code>, which decodes the cells only when they are read.
+	 */
+	static final class OffHeapRow implements CellAccessor {
+
+		private ByteBuffer block;
+		private int columnCount;
+		private int[] offsets = new int[16];
+
+		/**
+		 * find the cells of the record starting at <code>position</code> in <code>block</code>
+		 *
+		 * @return the position of the next record
+		 */
+		int read(ByteBuffer block, int position) {
+			this.block = block;
+			columnCount = block.getInt(position);
+			if(offsets.length < columnCount) {
+				offsets = new int[Math.max(columnCount, offsets.length * 2)];
+			}
+			position += Integer.BYTES;
+			for(int i = 0; i < columnCount; i++) {
+				offsets[i] = position;
+				position += 2 * Integer.BYTES + Math.max(0, block.getInt(position + Integer.BYTES));
+			}
+			return position;
+		}
+
+		@Override
+		public int columnCount() {
+			return columnCount;
+		}
+
+		@Override
+		public Object cell(int column) {
+			if(block.getInt(offsets[column] + Integer.BYTES) < 0) {
+				return null;
+			}
+			StringBuilder cell = new StringBuilder();
+			appendCell(column, cell);
+			return cell.toString();
+		}
+
+		@Override
+		public int cellWidth(int column) {
+			return block.getInt(offsets[column]);
+		}
+
+		/**
+		 * decode the cell's UTF-8 bytes straight into <code>out</code>
+		 */
+		@Override
+		public void appendCell(int column, StringBuilder out) {
+			int start = offsets[column] + 2 * Integer.BYTES;
+			int end = start + block.getInt(offsets[column] + Integer.BYTES);
+			for(int i = start; i < end; i++) {
+				int b = block.get(i);
+				if(b >= 0) {
+					out.append((char) b);
+				}
+				else if((b & 0xE0) == 0xC0) {
+					out.append((char) ((b & 0x1F) << 6 | block.get(++i) & 0x3F));
+				}
+				else if((b & 0xF0) == 0xE0) {
+					out.append((char) ((b & 0x0F) << 12 | (block.get(++i) & 0x3F) << 6 | block.get(++i) & 0x3F));
+				}
+				else {
+					out.appendCodePoint((b & 0x07) << 18 | (block.get(++i) & 0x3F) << 12 | (block.get(++i) & 0x3F) << 6 | block.get(++i) & 0x3F);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+package com.johncsinclair.consoletable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.johncsinclair.consoletable.ColumnFormat.Aligned;
+
+/**
+ * A {@link RowSource} over the records or JavaBeans in an <code>Iterable</code>, reading each field through a <code>MethodHandle</code> as it is needed.
+ * <p>
+ * The columns of a class are found once and cached for the class: the components of a record in their declared order, 
+ * or the getters of a bean in order of property name. Numbers are aligned <code>RIGHT</code> and everything else <code>LEFT</code>.
+ * 
+ * @see ConsoleTable#ofRecords(Class, Iterable)
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class RecordRows<R> implements RowSource {
+
+	private static final ClassValue<RecordColumns> COLUMNS = new ClassValue<RecordColumns>() {
+		@Override
+		protected RecordColumns computeValue(Class<?> type) {
+			return new RecordColumns(type);
+		}
+	};
+
+	private final Iterable<? extends R> records;
+	private final RecordColumns columns;
+
+	RecordRows(Class<R> type, Iterable<? extends R> records) {
+		this.records = records;
+		this.columns = COLUMNS.get(type);
+	}
+
+	/**
+	 * @return a heading for each column, the name of the record component or bean property
+	 */
+	ColumnFormat[] headers() {
+		return columns.headers.clone();
+	}
+
+	@Override
+	public Iterator<RecordRow> rows() {
+		final Iterator<? extends R> iterator = records.iterator();
+		final RecordRow row = new RecordRow();
+		return new Iterator<RecordRow>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public RecordRow next() {
+				row.record = iterator.next();
+				return row;
+			}
+		};
+	}
+
+	/**
+	 * A {@link CellAccessor} which reads the fields of one record, or of a null record as an empty row.
+	 */
+	final class RecordRow implements CellAccessor {
+
+		private Object record;
+
+		@Override
+		public int columnCount() {
+			return record == null ? 0 : columns.accessors.length;
+		}
+
+		@Override
+		public Object cell(int column) {
+			try {
+				return (Object) columns.accessors[column].invokeExact(record);
+			}
+			catch(RuntimeException | Error e) {
+				throw e;
+			}
+			catch(Throwable e) {
+				throw new IllegalStateException("Could not read " + columns.headers[column] + " of " + record.getClass().getName(), e);
+			}
+		}
+	}
+
+	/**
+	 * The headings and accessors of the columns of a record or bean class, each accessor of type <code>(Object)Object</code>.
+	 */
+	private static final class RecordColumns {
+
+		final ColumnFormat[] headers;
+		final MethodHandle[] accessors;
+
+		RecordColumns(Class<?> type) {
+			List<String> names = new ArrayList<>();
+			List<Method> getters = new ArrayList<>();
+			if(type.isRecord()) {
+				for(RecordComponent component : type.getRecordComponents()) {
+					names.add(component.getName());
+					getters.add(component.getAccessor());
+				}
+			}
+			else {
+				// one getter for each property, in order of name, the one with the most specific type 
+				// where a getter overrides one with a generic type, such as getId() of HasId<Long>
+				Map<String, Method> beanGetters = new TreeMap<>();
+				for(Method method : type.getMethods()) {
+					String name = propertyName(method);
+					if(name != null && !method.isBridge() && !method.isSynthetic()) {
+						beanGetters.merge(name, method, (kept, other) -> 
+								kept.getReturnType().isAssignableFrom(other.getReturnType()) ? other : kept);
+					}
+				}
+				for(Map.Entry<String, Method> getter : beanGetters.entrySet()) {
+					names.add(getter.getKey());
+					getters.add(getter.getValue());
+				}
+			}
+			if(getters.isEmpty()) {
+				throw new IllegalArgumentException(type.getName() + " is not a record and has no getters");
+			}
+
+			headers = new ColumnFormat[getters.size()];
+			accessors = new MethodHandle[getters.size()];
+			for(int i = 0; i < getters.size(); i++) {
+				Method getter = getters.get(i);
+				headers[i] = new ColumnFormat(names.get(i), isNumeric(getter.getReturnType()) ? Aligned.RIGHT : Aligned.LEFT);
+				accessors[i] = unreflect(getter).asType(MethodType.methodType(Object.class, Object.class));
+			}
+		}
+
+		/**
+		 * @return the property name of a public getter, such as <code>getName()</code> or <code>isActive()</code>, or null if <code>method</code> is not a getter
+		 */
+		private static String propertyName(Method method) {
+			if(Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0 
+					|| method.getReturnType() == void.class || method.getDeclaringClass() == Object.class) {
+				return null;
+			}
+			String name = method.getName();
+			int prefix;
+			if(name.startsWith("get")) {
+				prefix = 3;
+			}
+			else if(name.startsWith("is") && method.getReturnType() == boolean.class) {
+				prefix = 2;
+			}
+			else {
+				return null;
+			}
+			if(name.length() == prefix) {
+				return null;
+			}
+			return Character.toLowerCase(name.charAt(prefix)) + name.substring(prefix + 1);
+		}
+
+		private static boolean isNumeric(Class<?> type) {
+			return Number.class.isAssignableFrom(type) || (type.isPrimitive() && type != boolean.class && type != char.class);
+		}
+
+		private static MethodHandle unreflect(Method getter) {
+			try {
+				return MethodHandles.publicLookup().unreflect(getter);
+			}
+			catch(IllegalAccessException e) {
+				// a public accessor of a class which is not public, such as a record declared in a method
+				try {
+					getter.setAccessible(true);
+					return MethodHandles.lookup().unreflect(getter);
+				}
+				catch(IllegalAccessException | RuntimeException inaccessible) {
+					throw new IllegalArgumentException("Cannot access " + getter, inaccessible);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.johncsinclair.consoletable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A Java Flight Recorder event for a render of a {@link ConsoleTable} that takes longer than the threshold, by default 10 ms.
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+@Name("com.johncsinclair.consoletable.ConsoleTableRender")
+@Label("ConsoleTable Render")
+@Category("ConsoleTable")
+@Description("A ConsoleTable rendered into a String")
+@Threshold("10 ms")
+final class RenderEvent extends jdk.jfr.Event {
+
+	@Label("Rows")
+	int rows;
+
+	@Label("Columns")
+	int columns;
+
+	@Label("Style")
+	String style;
+
+	@Label("Chars")
+	@Description("The number of chars in the rendered table, which is not its size in bytes")
+	long chars;
+
+}
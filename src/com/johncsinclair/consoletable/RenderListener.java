@@ -0,0 +1,22 @@
+package com.johncsinclair.consoletable;
+
+/**
+ * Receives the {@link RenderStatistics} of each render of a {@link ConsoleTable}. Use a <code>RenderListener</code> in {@link ConsoleTable#withRenderListener}.
+ * <p>
+ * The listener is called on the rendering thread, after the table has been rendered and before <code>toString()</code> returns.
+ * 
+ * @see RenderMetrics
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+@FunctionalInterface
+public interface RenderListener {
+
+	/**
+	 * called once for every render of a {@link ConsoleTable}
+	 * 
+	 * @param statistics the timings and counts of the render just completed
+	 */
+	public void rendered(RenderStatistics statistics);
+
+}
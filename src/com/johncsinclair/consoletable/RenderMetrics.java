@@ -0,0 +1,121 @@
+package com.johncsinclair.consoletable;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A {@link RenderListener} that keeps running totals of the {@link RenderStatistics} of every render, 
+ * which can be shared by many tables and threads, and registered as a JMX MBean.
+ * <p>
+ * For example:
+ * <pre>
+ * RenderMetrics metrics = new RenderMetrics().register("reports");
+ * ConsoleTable table = new ConsoleTable().withRenderListener(metrics);
+ * </pre>
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public class RenderMetrics implements RenderListener, RenderMetricsMBean {
+
+	private final LongAdder renderCount   = new LongAdder();
+	private final LongAdder widthNanos    = new LongAdder();
+	private final LongAdder ruleLineNanos = new LongAdder();
+	private final LongAdder dataRowNanos  = new LongAdder();
+	private final LongAdder outputNanos   = new LongAdder();
+	private final LongAdder rowCount      = new LongAdder();
+	private final LongAdder cellCount     = new LongAdder();
+	private final LongAdder charCount     = new LongAdder();
+	private final LongAdder bufferHits    = new LongAdder();
+
+	@Override
+	public void rendered(RenderStatistics statistics) {
+		renderCount.increment();
+		widthNanos.add(statistics.getWidthNanos());
+		ruleLineNanos.add(statistics.getRuleLineNanos());
+		dataRowNanos.add(statistics.getDataRowNanos());
+		outputNanos.add(statistics.getOutputNanos());
+		rowCount.add(statistics.getRowCount());
+		cellCount.add(statistics.getCellCount());
+		charCount.add(statistics.getCharCount());
+		if(statistics.isBufferReused()) {
+			bufferHits.increment();
+		}
+	}
+
+	/**
+	 * register this <code>RenderMetrics</code> with the platform MBean server, 
+	 * as <code>com.johncsinclair.consoletable:type=RenderMetrics,name=</code><i>name</i>
+	 * 
+	 * @param name the name to tell these metrics apart from others in the JMX console
+	 * @return this <code>RenderMetrics</code>
+	 * @throws JMException if the name is not valid, or is already registered
+	 */
+	public RenderMetrics register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("com.johncsinclair.consoletable:type=RenderMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return this;
+	}
+
+	@Override
+	public long getRenderCount() {
+		return renderCount.sum();
+	}
+
+	@Override
+	public long getWidthNanos() {
+		return widthNanos.sum();
+	}
+
+	@Override
+	public long getRuleLineNanos() {
+		return ruleLineNanos.sum();
+	}
+
+	@Override
+	public long getDataRowNanos() {
+		return dataRowNanos.sum();
+	}
+
+	@Override
+	public long getOutputNanos() {
+		return outputNanos.sum();
+	}
+
+	@Override
+	public long getRowCount() {
+		return rowCount.sum();
+	}
+
+	@Override
+	public long getCellCount() {
+		return cellCount.sum();
+	}
+
+	@Override
+	public long getCharCount() {
+		return charCount.sum();
+	}
+
+	@Override
+	public double getBufferHitRate() {
+		long renders = renderCount.sum();
+		return renders == 0 ? 0.0 : (double) bufferHits.sum() / renders;
+	}
+
+	@Override
+	public void reset() {
+		renderCount.reset();
+		widthNanos.reset();
+		ruleLineNanos.reset();
+		dataRowNanos.reset();
+		outputNanos.reset();
+		rowCount.reset();
+		cellCount.reset();
+		charCount.reset();
+		bufferHits.reset();
+	}
+
+}
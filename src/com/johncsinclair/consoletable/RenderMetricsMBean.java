@@ -0,0 +1,36 @@
+package com.johncsinclair.consoletable;
+
+/**
+ * The JMX management interface of {@link RenderMetrics}.
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public interface RenderMetricsMBean {
+
+	public long getRenderCount();
+
+	public long getWidthNanos();
+
+	public long getRuleLineNanos();
+
+	public long getDataRowNanos();
+
+	public long getOutputNanos();
+
+	public long getRowCount();
+
+	public long getCellCount();
+
+	public long getCharCount();
+
+	/**
+	 * @return the fraction of renders that reused the buffer cached for their thread, from 0.0 to 1.0
+	 */
+	public double getBufferHitRate();
+
+	/**
+	 * set all the totals back to zero
+	 */
+	public void reset();
+
+}
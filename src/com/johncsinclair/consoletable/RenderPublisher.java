@@ -0,0 +1,240 @@
+package com.johncsinclair.consoletable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A <code>Flow.Publisher</code> of a {@link ConsoleTable} rendered as chunks of encoded bytes, for a non-blocking server to stream to a client.
+ * Each subscriber has its own render, run by the <code>Executor</code>, which appends the lines to a chunk and, 
+ * when the chunk is full, waits for the subscriber to request it before rendering any more. 
+ * So a slow subscriber slows the render, and only one chunk of the table is held in memory at a time.
+ * <p>
+ * Every chunk except the last holds {@link #CHUNK_SIZE} chars, or one less rather than split a surrogate pair.
+ *
+ * @see ConsoleTable#publisher(Charset, Executor)
+ *
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class RenderPublisher implements Flow.Publisher<ByteBuffer> {
+
+	static final int CHUNK_SIZE = 8 * 1024;
+
+	/** an <code>Executor</code> which runs each render on a new daemon thread */
+	static final Executor NEW_THREAD = render -> {
+		Thread thread = new Thread(render, "ConsoleTable-publisher");
+		thread.setDaemon(true);
+		thread.start();
+	};
+
+	private final ConsoleTable table;
+	private final Charset charset;
+	private final Executor executor;
+	private final int chunkSize;
+
+	RenderPublisher(ConsoleTable table, Charset charset, Executor executor, int chunkSize) {
+		this.table = table;
+		this.charset = Objects.requireNonNull(charset, "charset");
+		this.executor = Objects.requireNonNull(executor, "executor");
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+		Objects.requireNonNull(subscriber, "subscriber");
+		RenderSubscription subscription = new RenderSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		try {
+			executor.execute(subscription::render);
+		}
+		catch(RejectedExecutionException e) {
+			subscription.cancel();
+			subscriber.onError(e);
+		}
+	}
+
+	/**
+	 * Thrown from <code>append</code> to stop the render when the subscription is cancelled
+	 */
+	private static final class Cancelled extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		Cancelled() {
+			super("The subscription is cancelled");
+		}
+	}
+
+	/**
+	 * The subscription of one subscriber, and the <code>Appendable</code> its render appends the lines to
+	 */
+	private final class RenderSubscription implements Flow.Subscription, Appendable {
+
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+		private final CharsetEncoder encoder;
+		private final StringBuilder chunk;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition demanded = lock.newCondition();
+		private long demand;
+		private boolean cancelled;
+		private IllegalArgumentException badRequest;
+
+		RenderSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.subscriber = subscriber;
+			this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.chunk = new StringBuilder(chunkSize);
+		}
+
+		@Override
+		public void request(long n) {
+			lock.lock();
+			try {
+				if(n <= 0) {
+					if(badRequest == null) {
+						badRequest = new IllegalArgumentException("The subscriber requested " + n + " chunks, which is not positive");
+					}
+				}
+				else {
+					demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				}
+				demanded.signal();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			lock.lock();
+			try {
+				cancelled = true;
+				demanded.signal();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * render the table into chunks, then send the last chunk and complete, or send the error which stopped the render
+		 */
+		void render() {
+			try {
+				table.renderTo(this);
+				while(chunk.length() > 0) {
+					sendChunk(chunk.length());
+				}
+				if(!isCancelled()) {
+					subscriber.onComplete();
+				}
+			}
+			catch(Cancelled e) {
+				// the subscriber wants no more signals
+			}
+			catch(IOException | RuntimeException e) {
+				if(!isCancelled()) {
+					subscriber.onError(e);
+				}
+			}
+		}
+
+		private boolean isCancelled() {
+			lock.lock();
+			try {
+				return cancelled;
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Appendable append(CharSequence text) throws IOException {
+			return append(text, 0, text.length());
+		}
+
+		@Override
+		public Appendable append(CharSequence text, int start, int end) throws IOException {
+			while(start < end) {
+				int count = Math.min(end - start, chunkSize - chunk.length());
+				chunk.append(text, start, start + count);
+				start += count;
+				if(chunk.length() == chunkSize) {
+					// keep a high surrogate at the end of the chunk for the next chunk, with its low surrogate
+					sendChunk(Character.isHighSurrogate(chunk.charAt(chunkSize - 1)) && chunkSize > 1 ? chunkSize - 1 : chunkSize);
+				}
+			}
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) throws IOException {
+			return append(String.valueOf(c));
+		}
+
+		/**
+		 * wait until the subscriber requests a chunk, then send the first <code>length</code> chars of the chunk
+		 */
+		private void sendChunk(int length) throws IOException {
+			awaitDemand();
+			ByteBuffer bytes;
+			try {
+				bytes = encoder.encode(CharBuffer.wrap(chunk, 0, length));
+			}
+			catch(CharacterCodingException e) {
+				// malformed and unmappable chars are replaced, so the encoder does not throw
+				throw new IllegalStateException(e);
+			}
+			chunk.delete(0, length);
+			subscriber.onNext(bytes);
+		}
+
+		/**
+		 * @throws Cancelled if the subscription is cancelled, after sending an error for a bad request or an interrupt
+		 */
+		private void awaitDemand() throws IOException {
+			Throwable error = null;
+			boolean stop;
+			lock.lock();
+			try {
+				while(demand == 0 && !cancelled && badRequest == null) {
+					demanded.await();
+				}
+				if(!cancelled && badRequest != null) {
+					error = badRequest;
+					cancelled = true;
+				}
+				stop = cancelled;
+				if(!stop && demand != Long.MAX_VALUE) {
+					demand--;
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				error = cancelled ? null : e;
+				cancelled = true;
+				stop = true;
+			}
+			finally {
+				lock.unlock();
+			}
+			if(error != null) {
+				subscriber.onError(error);
+			}
+			if(stop) {
+				throw new Cancelled();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.johncsinclair.consoletable;
+
+/**
+ * The timings and counts of one render of a {@link ConsoleTable}, reported to a {@link RenderListener}.
+ * <p>
+ * Times are in nanoseconds, from <code>System.nanoTime()</code>. The width calculation and the data rows both include 
+ * the time taken by the <code>toString()</code> of the cells.
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public final class RenderStatistics {
+
+	long widthNanos;
+	long ruleLineNanos;
+	long dataRowNanos;
+	long outputNanos;
+	int  rowCount;
+	int  columnCount;
+	long cellCount;
+	long charCount;
+	boolean bufferReused;
+
+	RenderStatistics() {
+	}
+
+	/**
+	 * @return the nanoseconds spent measuring the cells and fitting the column widths
+	 */
+	public long getWidthNanos() {
+		return widthNanos;
+	}
+
+	/**
+	 * @return the nanoseconds spent rendering the rule lines, top, header line, row lines and bottom
+	 */
+	public long getRuleLineNanos() {
+		return ruleLineNanos;
+	}
+
+	/**
+	 * @return the nanoseconds spent rendering the header and data rows
+	 */
+	public long getDataRowNanos() {
+		return dataRowNanos;
+	}
+
+	/**
+	 * @return the nanoseconds spent writing the rendered table to its output
+	 */
+	public long getOutputNanos() {
+		return outputNanos;
+	}
+
+	/**
+	 * @return the total of the nanoseconds of each phase of the render
+	 */
+	public long getTotalNanos() {
+		return widthNanos + ruleLineNanos + dataRowNanos + outputNanos;
+	}
+
+	/**
+	 * @return the number of data rows rendered, not counting the header
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the number of columns rendered
+	 */
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	/**
+	 * @return the number of header and data cells rendered
+	 */
+	public long getCellCount() {
+		return cellCount;
+	}
+
+	/**
+	 * @return the number of chars in the rendered table, including the newlines
+	 */
+	public long getCharCount() {
+		return charCount;
+	}
+
+	/**
+	 * @return true if the render reused the buffer cached for the thread, false if it had to allocate a new one,
+	 * as it always does on a virtual thread
+	 */
+	public boolean isBufferReused() {
+		return bufferReused;
+	}
+
+	@Override
+	public String toString() {
+		return "RenderStatistics [rows=" + rowCount + ", columns=" + columnCount + ", cells=" + cellCount + ", chars=" + charCount
+				+ ", widthNanos=" + widthNanos + ", ruleLineNanos=" + ruleLineNanos + ", dataRowNanos=" + dataRowNanos 
+				+ ", outputNanos=" + outputNanos + ", bufferReused=" + bufferReused + "]";
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.johncsinclair.consoletable;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.johncsinclair.consoletable.ColumnFormat.Aligned;
+
+/**
+ * A {@link RowSource} that streams the rows of a JDBC <code>ResultSet</code>, reading each cell as it is rendered.
+ * <p>
+ * The column widths come from <code>ResultSetMetaData.getColumnDisplaySize</code>, so the rows are read only once, 
+ * and a table from a <code>ResultSet</code> can only be rendered once.
+ * 
+ * @see ConsoleTable#from(ResultSet)
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class ResultSetRows implements RowSource, CellAccessor {
+
+	/** A column is no wider than this, or its heading, however large its display size. */
+	static final int MAX_COLUMN_WIDTH = 40;
+
+	private final ResultSet resultSet;
+	private final ColumnFormat[] headers;
+	private final int[] columnWidths;
+
+	ResultSetRows(ResultSet resultSet) throws SQLException {
+		this.resultSet = resultSet;
+		ResultSetMetaData metaData = resultSet.getMetaData();
+		int columnCount = metaData.getColumnCount();
+		headers = new ColumnFormat[columnCount];
+		columnWidths = new int[columnCount];
+		for(int i = 0; i < columnCount; i++) {
+			String label = metaData.getColumnLabel(i + 1);
+			if(label == null) {
+				label = "";
+			}
+			headers[i] = new ColumnFormat(label, isNumeric(metaData.getColumnType(i + 1)) ? Aligned.RIGHT : Aligned.LEFT);
+			String heading = headers[i].toString();
+			int displaySize = metaData.getColumnDisplaySize(i + 1);
+			int width = displaySize > 0 ? Math.min(displaySize, MAX_COLUMN_WIDTH) : MAX_COLUMN_WIDTH;
+			columnWidths[i] = Math.max(width, heading.codePointCount(0, heading.length()));
+		}
+	}
+
+	private static boolean isNumeric(int sqlType) {
+		switch(sqlType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return a heading for each column, aligned <code>RIGHT</code> for numbers and <code>LEFT</code> for everything else
+	 */
+	ColumnFormat[] headers() {
+		return headers;
+	}
+
+	@Override
+	public int[] columnWidths() {
+		return columnWidths;
+	}
+
+	@Override
+	public Iterator<ResultSetRows> rows() {
+		return new Iterator<ResultSetRows>() {
+			private boolean fetched;
+			private boolean available;
+
+			@Override
+			public boolean hasNext() {
+				if(!fetched) {
+					try {
+						available = resultSet.next();
+					}
+					catch(SQLException e) {
+						throw new IllegalStateException("Could not read the next row of the ResultSet", e);
+					}
+					fetched = true;
+				}
+				return available;
+			}
+
+			@Override
+			public ResultSetRows next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				fetched = false;
+				return ResultSetRows.this;
+			}
+		};
+	}
+
+	@Override
+	public int columnCount() {
+		return columnWidths.length;
+	}
+
+	@Override
+	public Object cell(int column) {
+		try {
+			return resultSet.getObject(column + 1);
+		}
+		catch(SQLException e) {
+			throw new IllegalStateException("Could not read column " + (column + 1) + " of the ResultSet", e);
+		}
+	}
+
+}
@@ -0,0 +1,326 @@
+package com.johncsinclair.consoletable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * The sort keys of a {@link ConsoleTable}, which sorts the rows as a permutation of their indexes, so the rows themselves are never copied.
+ * Empty cells sort last whether the order is ascending or descending.
+ * <p>
+ * A single key of whole numbers in natural order is sorted as primitive <code>long</code>s, each packing the key with its row index.
+ * Otherwise the indexes are sorted with a <code>Comparator</code>. Tables of more than {@link #PARALLEL_SORT_THRESHOLD} rows
+ * are sorted with <code>Arrays.parallelSort</code>.
+ * <p>
+ * Rows spilled to disk are written as runs, each sorted before it is written, and the runs are merged as the table is rendered.
+ * The runs are merged by comparing each cell as it is displayed, read as a number where it is one.
+ *
+ * @see ConsoleTable#withSortBy(int, Comparator, boolean)
+ *
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class RowSorter {
+
+	static final int PARALLEL_SORT_THRESHOLD = 1 << 13;
+
+	private static final long INDEX_MASK = (1L << 31) - 1;
+	private static final long NULL_KEY = 1L << 32;
+
+	private final int[] columns;
+	private final Comparator<Object>[] comparators;
+	private final boolean[] ascending;
+
+	private RowSorter(int[] columns, Comparator<Object>[] comparators, boolean[] ascending) {
+		this.columns = columns;
+		this.comparators = comparators;
+		this.ascending = ascending;
+	}
+
+	/**
+	 * @param comparator the order of the cells, or null to compare them with {@link #compareNatural(Object, Object)}
+	 */
+	@SuppressWarnings("unchecked")
+	static RowSorter by(int column, Comparator<?> comparator, boolean ascending) {
+		return new RowSorter(new int[] { column }, (Comparator<Object>[]) new Comparator<?>[] { comparator }, new boolean[] { ascending });
+	}
+
+	/**
+	 * @return a sorter which breaks ties in this sorter's order by <code>column</code>
+	 */
+	@SuppressWarnings("unchecked")
+	RowSorter thenBy(int column, Comparator<?> comparator, boolean ascending) {
+		int keys = columns.length;
+		RowSorter sorter = new RowSorter(Arrays.copyOf(columns, keys + 1), Arrays.copyOf(comparators, keys + 1), Arrays.copyOf(this.ascending, keys + 1));
+		sorter.columns[keys] = column;
+		sorter.comparators[keys] = (Comparator<Object>) comparator;
+		sorter.ascending[keys] = ascending;
+		return sorter;
+	}
+
+	/**
+	 * @return the indexes of <code>rows</code> in sorted order, with equal rows in the order they were added
+	 */
+	int[] order(List<Object[]> rows) {
+		if(columns.length == 1 && comparators[0] == null) {
+			int[] order = primitiveOrder(rows);
+			if(order != null) {
+				return order;
+			}
+		}
+		Integer[] indexes = new Integer[rows.size()];
+		for(int i = 0; i < indexes.length; i++) {
+			indexes[i] = i;
+		}
+		Comparator<Object[]> rowComparator = rowComparator();
+		Comparator<Integer> indexComparator = (a, b) -> rowComparator.compare(rows.get(a), rows.get(b));
+		if(indexes.length > PARALLEL_SORT_THRESHOLD) {
+			Arrays.parallelSort(indexes, indexComparator);
+		}
+		else {
+			Arrays.sort(indexes, indexComparator);
+		}
+		int[] order = new int[indexes.length];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = indexes[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Sort by packing each key, biased into 33 bits with empty cells last, above its 31 bit row index.
+	 *
+	 * @return the sorted indexes, or null if the key column is not all whole numbers within the range of an <code>int</code>
+	 */
+	private int[] primitiveOrder(List<Object[]> rows) {
+		int column = columns[0];
+		long[] packed = new long[rows.size()];
+		for(int i = 0; i < packed.length; i++) {
+			Object cell = cellOf(rows.get(i), column);
+			long key;
+			if(cell == null) {
+				key = NULL_KEY;
+			}
+			else if(cell instanceof Integer || cell instanceof Short || cell instanceof Byte
+					|| (cell instanceof Long && ((Long) cell).longValue() == ((Long) cell).intValue())) {
+				int value = ((Number) cell).intValue();
+				key = ascending[0] ? (long) value - Integer.MIN_VALUE : (long) Integer.MAX_VALUE - value;
+			}
+			else {
+				return null;
+			}
+			packed[i] = (key << 31 | i) ^ Long.MIN_VALUE;
+		}
+		if(packed.length > PARALLEL_SORT_THRESHOLD) {
+			Arrays.parallelSort(packed);
+		}
+		else {
+			Arrays.sort(packed);
+		}
+		int[] order = new int[packed.length];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = (int) (packed[i] & INDEX_MASK);
+		}
+		return order;
+	}
+
+	/**
+	 * @return a comparator over <code>Object[]</code> rows, which may be null or short
+	 */
+	Comparator<Object[]> rowComparator() {
+		return (a, b) -> {
+			for(int key = 0; key < columns.length; key++) {
+				int compared = compareCells(key, cellOf(a, columns[key]), cellOf(b, columns[key]));
+				if(compared != 0) {
+					return compared;
+				}
+			}
+			return 0;
+		};
+	}
+
+	private int compareCells(int key, Object a, Object b) {
+		if(a == null || b == null) {
+			return a == null ? (b == null ? 0 : 1) : -1;
+		}
+		int compared = comparators[key] == null ? compareNatural(a, b) : comparators[key].compare(a, b);
+		return ascending[key] ? compared : -compared;
+	}
+
+	/**
+	 * Keep the first <code>k</code> rows in the order of <code>order</code> in <code>heap</code>, 
+	 * a binary heap with the row which comes last at its root, so that a row is only added when it comes before that row.
+	 */
+	static void offer(List<Object[]> heap, Object[] row, int k, Comparator<Object[]> order) {
+		if(heap.size() < k) {
+			heap.add(row);
+			int i = heap.size() - 1;
+			while(i > 0 && order.compare(heap.get(i), heap.get((i - 1) / 2)) > 0) {
+				Collections.swap(heap, i, (i - 1) / 2);
+				i = (i - 1) / 2;
+			}
+		}
+		else if(order.compare(row, heap.get(0)) < 0) {
+			heap.set(0, row);
+			int i = 0;
+			while(2 * i + 1 < heap.size()) {
+				int child = 2 * i + 1;
+				if(child + 1 < heap.size() && order.compare(heap.get(child + 1), heap.get(child)) > 0) {
+					child++;
+				}
+				if(order.compare(heap.get(child), heap.get(i)) <= 0) {
+					break;
+				}
+				Collections.swap(heap, i, child);
+				i = child;
+			}
+		}
+	}
+
+	private static Object cellOf(Object[] row, int column) {
+		return row == null || column >= row.length ? null : row[column];
+	}
+
+	/**
+	 * Compare numbers by their value, cells of the same <code>Comparable</code> class by <code>compareTo</code>,
+	 * and anything else by <code>toString()</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	static int compareNatural(Object a, Object b) {
+		if(a instanceof Number && b instanceof Number) {
+			if(isWholeNumber(a) && isWholeNumber(b)) {
+				return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+			}
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		}
+		if(a instanceof Comparable && a.getClass() == b.getClass()) {
+			return ((Comparable<Object>) a).compareTo(b);
+		}
+		return a.toString().compareTo(b.toString());
+	}
+
+	static boolean isWholeNumber(Object cell) {
+		return cell instanceof Long || cell instanceof Integer || cell instanceof Short || cell instanceof Byte;
+	}
+
+	/**
+	 * @return the <code>toString()</code> of a cell which is not a <code>Number</code>, 
+	 * as a <code>Long</code> or <code>Double</code> if it displays as a number, or null for an empty cell
+	 */
+	static Object parseNumber(Object cell) {
+		if(cell == null) {
+			return null;
+		}
+		String cellString = cell.toString();
+		if(!looksNumeric(cellString)) {
+			return cellString;
+		}
+		try {
+			return Long.valueOf(cellString);
+		}
+		catch(NumberFormatException notWhole) {
+			try {
+				return Double.valueOf(cellString);
+			}
+			catch(NumberFormatException notNumber) {
+				return cellString;
+			}
+		}
+	}
+
+	private static boolean looksNumeric(String cellString) {
+		if(cellString.isEmpty()) {
+			return false;
+		}
+		for(int i = 0; i < cellString.length(); i++) {
+			char c = cellString.charAt(i);
+			if((c < '0' || c > '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Merge runs of rows sorted by {@link #rowComparator()}, comparing their cells the same way and taking equal rows from the earlier run first.
+	 * Each row returned is valid until the following call to <code>next()</code>.
+	 */
+	Iterator<CellAccessor> merge(List<Iterator<? extends CellAccessor>> runs) {
+		final PriorityQueue<Head> heads = new PriorityQueue<>();
+		for(int i = 0; i < runs.size(); i++) {
+			Head head = new Head(runs.get(i), i);
+			if(head.advance()) {
+				heads.add(head);
+			}
+		}
+		return new Iterator<CellAccessor>() {
+			// the head returned last, which is advanced only when the caller has finished with its row
+			private Head taken;
+
+			@Override
+			public boolean hasNext() {
+				replaceTaken();
+				return !heads.isEmpty();
+			}
+
+			@Override
+			public CellAccessor next() {
+				replaceTaken();
+				taken = heads.poll();
+				if(taken == null) {
+					throw new NoSuchElementException();
+				}
+				return taken.row;
+			}
+
+			private void replaceTaken() {
+				if(taken != null && taken.advance()) {
+					heads.add(taken);
+				}
+				taken = null;
+			}
+		};
+	}
+
+	/**
+	 * The next row of a run, with its cells in the sort columns
+	 */
+	private final class Head implements Comparable<Head> {
+
+		private final Iterator<? extends CellAccessor> run;
+		private final int runIndex;
+		private final Object[] keys = new Object[columns.length];
+		private CellAccessor row;
+
+		Head(Iterator<? extends CellAccessor> run, int runIndex) {
+			this.run = run;
+			this.runIndex = runIndex;
+		}
+
+		boolean advance() {
+			if(!run.hasNext()) {
+				return false;
+			}
+			row = run.next();
+			for(int key = 0; key < columns.length; key++) {
+				keys[key] = columns[key] < row.columnCount() ? row.cell(columns[key]) : null;
+			}
+			return true;
+		}
+
+		@Override
+		public int compareTo(Head other) {
+			for(int key = 0; key < columns.length; key++) {
+				int compared = compareCells(key, keys[key], other.keys[key]);
+				if(compared != 0) {
+					return compared;
+				}
+			}
+			return Integer.compare(runIndex, other.runIndex);
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.johncsinclair.consoletable;
+
+import java.util.Iterator;
+
+/**
+ * The data rows of a {@link ConsoleTable}, read one {@link CellAccessor} at a time while the table is rendered, 
+ * so that rows can be fed to the table from any storage without copying them into <code>Object[]</code>s. 
+ * Use a <code>RowSource</code> in {@link ConsoleTable#withRows(RowSource)}.
+ * <p>
+ * For example:
+ * <pre>
+ * long[][] counts = { { 2021, 42 }, { 2022, 1234 } };
+ * ConsoleTable table = new ConsoleTable("Year", "Count").withRows(RowSource.of(counts));
+ * </pre>
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public interface RowSource {
+
+	/**
+	 * Start a pass over the rows. The table makes one pass to measure the columns, unless {@link #columnWidths()} 
+	 * knows them already, and one pass to render the rows.
+	 * 
+	 * @return an iterator over the rows. The <code>CellAccessor</code> returned by <code>next()</code> 
+	 * may be reused, so it is only valid until the following call to <code>next()</code>.
+	 */
+	public Iterator<? extends CellAccessor> rows();
+
+	/**
+	 * @return the width of each column when it is known without reading the rows, or null if the rows must be measured.
+	 * Cells wider than their column are truncated.
+	 */
+	public default int[] columnWidths() {
+		return null;
+	}
+
+	/**
+	 * @return a <code>RowSource</code> over rows of <code>long</code>s, which are measured and rendered without boxing them or making them into <code>String</code>s.
+	 * A null row is an empty row.
+	 */
+	public static RowSource of(long[][] rows) {
+		return new LongArrayRows(rows);
+	}
+
+}
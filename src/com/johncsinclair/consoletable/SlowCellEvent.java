@@ -0,0 +1,27 @@
+package com.johncsinclair.consoletable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A Java Flight Recorder event for a cell of a {@link ConsoleTable} whose <code>toString()</code> takes longer than the threshold, by default 1 ms.
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+@Name("com.johncsinclair.consoletable.ConsoleTableSlowCell")
+@Label("ConsoleTable Slow Cell")
+@Category("ConsoleTable")
+@Description("The toString() of a ConsoleTable cell was slow")
+@Threshold("1 ms")
+final class SlowCellEvent extends jdk.jfr.Event {
+
+	@Label("Column")
+	int column;
+
+	@Label("Cell Class")
+	String cellClass;
+
+}
@@ -0,0 +1,328 @@
+package com.johncsinclair.consoletable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.johncsinclair.consoletable.OffHeapRows.OffHeapRow;
+
+/**
+ * A {@link RowSource} which writes its rows to a temporary file, so that a table can hold more rows than fit in the heap.
+ * Each row is written as its length, the record of {@link OffHeapRows}, then a byte for each cell with the kind of number it is,
+ * so that numbers are read back as numbers and sort in the same order as they did before they were spilled.
+ * The widest cell of each column is kept in memory, so the table does not have to read the file to measure the columns.
+ * Each pass over the rows streams the file back through a small buffer.
+ * The rows are written as runs, such as sorted runs to be merged by a {@link RowSorter}, and only the rows of ended runs are read,
+ * so reading the rows never changes this, and any number of threads may read them at once.
+ * <p>
+ * The file is deleted when it is closed, which is when this is garbage collected, or when the JVM exits.
+ *
+ * @see ConsoleTable#withMaxRowsInMemory(int)
+ *
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class SpillRows implements RowSource {
+
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte NOT_A_NUMBER = 0;
+	private static final byte WHOLE_NUMBER = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte FLOAT = 3;
+	private static final byte BIG_INTEGER = 4;
+	private static final byte OTHER_NUMBER = 5;
+
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	private final int bufferSize;
+	private FileChannel channel;
+	private ByteBuffer writeBuffer;
+	private long spilledBytes;
+	private long[] runEnds = new long[0];
+	private int[] maxWidths = new int[0];
+	private int size;
+	private int sizeOfRuns;
+
+	SpillRows() {
+		this(BUFFER_SIZE);
+	}
+
+	SpillRows(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * encode <code>cells</code> as a record in the write buffer, writing the buffer to the file when it is full
+	 *
+	 * @param cells the row, which may be null for an empty row
+	 * @throws UncheckedIOException if the file cannot be created or written
+	 */
+	void add(Object[] cells) {
+		String[] cellStrings = OffHeapRows.cellStrings(cells);
+		long recordSize = Integer.BYTES + OffHeapRows.recordSize(cellStrings) + cellStrings.length;
+		if(recordSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The row is too long to spill to disk");
+		}
+		if(writeBuffer == null) {
+			open();
+		}
+		if(writeBuffer.remaining() < recordSize) {
+			flush();
+			if(writeBuffer.capacity() < recordSize) {
+				writeBuffer = ByteBuffer.allocate((int) recordSize);
+			}
+		}
+		int recordStart = writeBuffer.position();
+		writeBuffer.position(recordStart + Integer.BYTES);
+		maxWidths = OffHeapRows.putRecord(writeBuffer, cellStrings, maxWidths);
+		for(int i = 0; i < cellStrings.length; i++) {
+			writeBuffer.put(kindOf(cells[i]));
+		}
+		writeBuffer.putInt(recordStart, writeBuffer.position() - recordStart - Integer.BYTES);
+		size++;
+	}
+
+	private static byte kindOf(Object cell) {
+		if(!(cell instanceof Number)) {
+			return NOT_A_NUMBER;
+		}
+		if(RowSorter.isWholeNumber(cell)) {
+			return WHOLE_NUMBER;
+		}
+		if(cell instanceof Double) {
+			return DOUBLE;
+		}
+		if(cell instanceof Float) {
+			return FLOAT;
+		}
+		return cell instanceof BigInteger ? BIG_INTEGER : OTHER_NUMBER;
+	}
+
+	/**
+	 * @return the number <code>cellString</code> was made from, which compares the same way and has the same <code>toString()</code>,
+	 * or <code>cellString</code> if it was not a number
+	 */
+	private static Object valueOf(byte kind, String cellString) {
+		try {
+			switch(kind) {
+			case WHOLE_NUMBER:
+				return Long.valueOf(cellString);
+			case DOUBLE:
+				return Double.valueOf(cellString);
+			case FLOAT:
+				return Float.valueOf(cellString);
+			case BIG_INTEGER:
+				return new BigInteger(cellString);
+			case OTHER_NUMBER:
+				return new BigDecimal(cellString);
+			default:
+				return cellString;
+			}
+		}
+		catch(NumberFormatException e) {
+			// a Number whose toString() is not a decimal number
+			return cellString;
+		}
+	}
+
+	private void open() {
+		try {
+			Path path = Files.createTempFile("consoletable-", ".spill");
+			channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException("Cannot create a file to spill the rows to", e);
+		}
+		FileChannel toClose = channel;
+		CLEANER.register(this, () -> {
+			try {
+				toClose.close();
+			}
+			catch(IOException e) {
+				// the file is deleted when the JVM exits
+			}
+		});
+		writeBuffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	 * write the records in the write buffer to the end of the file
+	 */
+	private void flush() {
+		writeBuffer.flip();
+		try {
+			while(writeBuffer.hasRemaining()) {
+				spilledBytes += channel.write(writeBuffer, spilledBytes);
+			}
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException("Cannot spill the rows to disk", e);
+		}
+		writeBuffer.clear();
+	}
+
+	/**
+	 * Write the rows added since the last run ended to the file as a run, so that they can be read, 
+	 * and the rows added next start a new run.
+	 *
+	 * @throws UncheckedIOException if the file cannot be written
+	 */
+	void endRun() {
+		if(writeBuffer == null || writeBuffer.position() == 0) {
+			return;
+		}
+		flush();
+		long[] ended = Arrays.copyOf(runEnds, runEnds.length + 1);
+		ended[runEnds.length] = spilledBytes;
+		runEnds = ended;
+		sizeOfRuns = size;
+	}
+
+	/**
+	 * @return the number of rows in the ended runs, which are the rows that are read
+	 */
+	int size() {
+		return sizeOfRuns;
+	}
+
+	@Override
+	public int[] columnWidths() {
+		return maxWidths.clone();
+	}
+
+	/**
+	 * Read the ended runs back from the file, from the start.
+	 *
+	 * @throws UncheckedIOException from <code>next()</code> if the file cannot be read
+	 */
+	@Override
+	public Iterator<SpilledRow> rows() {
+		long[] ended = runEnds;
+		return rows(0, ended.length == 0 ? 0 : ended[ended.length - 1]);
+	}
+
+	/**
+	 * @return an iterator over the rows of each ended run, in the order the runs were written
+	 */
+	List<Iterator<? extends CellAccessor>> runs() {
+		long[] ended = runEnds;
+		List<Iterator<? extends CellAccessor>> runs = new ArrayList<>(ended.length);
+		for(int i = 0; i < ended.length; i++) {
+			runs.add(rows(i == 0 ? 0 : ended[i - 1], ended[i]));
+		}
+		return runs;
+	}
+
+	/**
+	 * @return an iterator over the records from byte <code>start</code> to byte <code>end</code> of the file
+	 */
+	private Iterator<SpilledRow> rows(final long start, final long end) {
+		final SpilledRow row = new SpilledRow();
+		return new Iterator<SpilledRow>() {
+			private ByteBuffer readBuffer = ByteBuffer.allocate(bufferSize).limit(0);
+			private long recordPosition = start;
+			private long filePosition = start;
+
+			@Override
+			public boolean hasNext() {
+				return recordPosition < end;
+			}
+
+			@Override
+			public SpilledRow next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				fill(Integer.BYTES);
+				int recordLength = readBuffer.getInt();
+				fill(recordLength);
+				row.read(readBuffer, readBuffer.position());
+				readBuffer.position(readBuffer.position() + recordLength);
+				recordPosition += Integer.BYTES + recordLength;
+				return row;
+			}
+
+			/**
+			 * read from the file until at least <code>needed</code> bytes are in the read buffer
+			 */
+			private void fill(int needed) {
+				if(readBuffer.remaining() >= needed) {
+					return;
+				}
+				if(readBuffer.capacity() < needed) {
+					readBuffer = ByteBuffer.allocate(needed).put(readBuffer);
+				}
+				else {
+					readBuffer.compact();
+				}
+				try {
+					while(readBuffer.position() < needed) {
+						if(filePosition == end) {
+							throw new EOFException("The spilled rows end part way through a row");
+						}
+						readBuffer.limit((int) Math.min(readBuffer.capacity(), readBuffer.position() + end - filePosition));
+						int read = channel.read(readBuffer, filePosition);
+						if(read < 0) {
+							throw new EOFException("The spilled rows end before byte " + end);
+						}
+						filePosition += read;
+					}
+				}
+				catch(IOException e) {
+					throw new UncheckedIOException("Cannot read the spilled rows", e);
+				}
+				readBuffer.flip();
+			}
+		};
+	}
+
+	/**
+	 * A spilled row, whose number cells are read back as numbers
+	 */
+	static final class SpilledRow implements CellAccessor {
+
+		private final OffHeapRow record = new OffHeapRow();
+		private ByteBuffer buffer;
+		private int kinds;
+
+		void read(ByteBuffer buffer, int position) {
+			this.buffer = buffer;
+			kinds = record.read(buffer, position);
+		}
+
+		@Override
+		public int columnCount() {
+			return record.columnCount();
+		}
+
+		@Override
+		public Object cell(int column) {
+			Object cell = record.cell(column);
+			return cell == null ? null : valueOf(buffer.get(kinds + column), (String) cell);
+		}
+
+		@Override
+		public int cellWidth(int column) {
+			return record.cellWidth(column);
+		}
+
+		@Override
+		public void appendCell(int column, StringBuilder out) {
+			record.appendCell(column, out);
+		}
+	}
+
+}
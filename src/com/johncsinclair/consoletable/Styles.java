@@ -2,6 +2,7 @@ package com.johncsinclair.consoletable;
 
 import java.time.DayOfWeek;
 import java.time.format.TextStyle;
+import java.util.Arrays;
 import java.util.Locale;
 
 
@@ -327,16 +328,44 @@ public enum Styles implements Style {
 
     private String[][] tablePattern;
 	   
+    /**
+     * @param tablePattern a row of patterns for each {@link Row}, null for a row which is not shown, 
+     * then optionally a row with the LEFT and RIGHT padding
+     */
     private Styles (String[][] tablePattern){
+    	int rowCount = Row.values().length;
+    	if(tablePattern.length != rowCount && tablePattern.length != rowCount + 1) {
+    		throw new IllegalArgumentException("A style needs " + rowCount + " rows of patterns, and optionally a row of padding, not " + tablePattern.length + " rows");
+    	}
+    	for(int row = 0; row < tablePattern.length; row++) {
+    		if(tablePattern[row] != null && tablePattern[row].length != Column.values().length) {
+    			throw new IllegalArgumentException("Each row of a style needs a pattern for each of " + Arrays.toString(Column.values()) 
+    					+ ", but row " + row + " has " + tablePattern[row].length);
+    		}
+    	}
     	this.tablePattern = tablePattern;
     }
     	
+    /**
+     * @param compactPattern a <code>String</code> of one char for each {@link Column} for each {@link Row}, null for a row which is not shown
+     */
     private Styles (String[] compactPattern){
-    	String[][] pattern = new String[Row.values().length][Column.values().length];
+    	if(compactPattern.length != Row.values().length) {
+    		throw new IllegalArgumentException("A compact style needs " + Row.values().length + " rows, not " + compactPattern.length);
+    	}
+    	String[][] pattern = new String[Row.values().length][];
     	for(Row row : Row.values()) {
-    		// TODO - handle null row
+    		String rowPattern = compactPattern[row.ordinal()];
+    		if(rowPattern == null) {
+    			continue;
+    		}
+    		int[] codePoints = rowPattern.codePoints().toArray();
+    		if(codePoints.length != Column.values().length) {
+    			throw new IllegalArgumentException("Each row of a compact style needs one char for each column, but " + row + " is \"" + rowPattern + "\"");
+    		}
+    		pattern[row.ordinal()] = new String[codePoints.length];
     		for(Column column : Column.values()) {
-    			pattern[row.ordinal()][column.ordinal()] = String.valueOf( compactPattern[row.ordinal()].charAt(column.ordinal()) );
+    			pattern[row.ordinal()][column.ordinal()] = new String(codePoints, column.ordinal(), 1);
     		}
     	}
     	this.tablePattern = pattern;
@@ -344,9 +373,6 @@ public enum Styles implements Style {
 
 	@Override
 	public String getPattern(Row row, Column column) {
-		
-		// TODO if row.ordinal() > tablePattern[].length throw a helpful exception for a Style developer. ( or col.ordinal()  )
-		
 		if(tablePattern[row.ordinal()] == null) {
 			return null;
 		} else {
@@ -0,0 +1,40 @@
+package com.johncsinclair.consoletable;
+
+import java.io.IOException;
+
+import com.johncsinclair.consoletable.ColumnFormat.Aligned;
+
+/**
+ * A format to write the rows of a {@link ConsoleTable} in, other than the console, such as Markdown or HTML. 
+ * The table reads its rows once and converts each cell to a <code>String</code> once, whichever encoders it writes to, 
+ * so several encoders can share one pass over the rows.
+ * <p>
+ * {@link TableEncoders} has encoders for Markdown, HTML, CSV and JSON.
+ * 
+ * @see ConsoleTable#encodeTo(TableEncoder...)
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public interface TableEncoder {
+
+	/**
+	 * write the start of the table
+	 * 
+	 * @param headings the heading of each column shown, "" for a column with no heading, or no headings if the table has none
+	 * @param alignments the alignment of each column with a heading
+	 */
+	public void begin(String[] headings, Aligned[] alignments) throws IOException;
+
+	/**
+	 * write a data row
+	 * 
+	 * @param cells the <code>toString()</code> of each cell shown, null for an empty cell, in an array which may be reused for the next row
+	 */
+	public void row(String[] cells) throws IOException;
+
+	/**
+	 * write the end of the table
+	 */
+	public void end() throws IOException;
+
+}
@@ -0,0 +1,429 @@
+package com.johncsinclair.consoletable;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import com.johncsinclair.consoletable.ColumnFormat.Aligned;
+
+/**
+ * The {@link TableEncoder}s for Markdown, HTML, CSV, JSON and the console table itself, each appending to an <code>Appendable</code>, such as a <code>Writer</code>.
+ * <p>
+ * For example, to write a report to the console as Markdown and to a file as CSV in one pass over the rows:
+ * <pre>
+ * table.encodeTo(TableEncoders.markdown(System.out), TableEncoders.csv(fileWriter));
+ * </pre>
+ * or to the console as a table and to a file as CSV:
+ * <pre>
+ * table.encodeTo(TableEncoders.console(System.out, Styles.LIGHT), TableEncoders.csv(fileWriter));
+ * </pre>
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public final class TableEncoders {
+
+	private TableEncoders() {
+	}
+
+	/**
+	 * @return an encoder which writes a GitHub flavoured Markdown table, aligning the columns with <code>:</code> in the delimiter row
+	 */
+	public static TableEncoder markdown(Appendable out) {
+		return new Markdown(Objects.requireNonNull(out, "out"));
+	}
+
+	/**
+	 * @return an encoder which writes an HTML <code>&lt;table&gt;</code>, aligning the cells with a <code>text-align</code> style
+	 */
+	public static TableEncoder html(Appendable out) {
+		return new Html(Objects.requireNonNull(out, "out"));
+	}
+
+	/**
+	 * @return an encoder which writes CSV as in RFC 4180, with the headings as the first line if the table has headings
+	 */
+	public static TableEncoder csv(Appendable out) {
+		return new Csv(Objects.requireNonNull(out, "out"));
+	}
+
+	/**
+	 * @return an encoder which writes a JSON array with an object for each row, keyed by the headings. 
+	 * A column with no heading is keyed by its number, counted from 1, and the rows of a table with no headings are arrays.
+	 * A cell which displays as a JSON number is written as a number, and any other cell as a string.
+	 */
+	public static TableEncoder json(Appendable out) {
+		return new Json(Objects.requireNonNull(out, "out"));
+	}
+
+	/**
+	 * @return an encoder which writes the rows as a {@link ConsoleTable} in <code>style</code>. 
+	 * The rows are kept until {@link TableEncoder#end()}, because every row is measured before the first line is written.
+	 */
+	public static TableEncoder console(Appendable out, Style style) {
+		return new Console(Objects.requireNonNull(out, "out"), style);
+	}
+
+	/**
+	 * @return an encoder which passes each call on to each of <code>encoders</code> in turn
+	 */
+	public static TableEncoder tee(TableEncoder... encoders) {
+		final TableEncoder[] sinks = encoders.clone();
+		for(TableEncoder sink : sinks) {
+			Objects.requireNonNull(sink, "encoder");
+		}
+		return new TableEncoder() {
+			@Override
+			public void begin(String[] headings, Aligned[] alignments) throws IOException {
+				for(TableEncoder sink : sinks) {
+					sink.begin(headings, alignments);
+				}
+			}
+
+			@Override
+			public void row(String[] cells) throws IOException {
+				for(TableEncoder sink : sinks) {
+					sink.row(cells);
+				}
+			}
+
+			@Override
+			public void end() throws IOException {
+				for(TableEncoder sink : sinks) {
+					sink.end();
+				}
+			}
+		};
+	}
+
+	private static final class Markdown implements TableEncoder {
+
+		private final Appendable out;
+		private boolean headed;
+
+		Markdown(Appendable out) {
+			this.out = out;
+		}
+
+		@Override
+		public void begin(String[] headings, Aligned[] alignments) throws IOException {
+			if(headings.length > 0) {
+				writeHeader(headings, alignments);
+			}
+		}
+
+		/**
+		 * write the heading row and the delimiter row, which a Markdown table must have even if the headings are blank
+		 */
+		private void writeHeader(String[] headings, Aligned[] alignments) throws IOException {
+			writeRow(headings);
+			out.append('|');
+			for(int i = 0; i < headings.length; i++) {
+				Aligned alignment = i < alignments.length ? alignments[i] : Aligned.LEFT;
+				out.append(alignment == Aligned.CENTRE ? ":---:" : alignment == Aligned.RIGHT ? "---:" : "---").append('|');
+			}
+			out.append('\n');
+			headed = true;
+		}
+
+		@Override
+		public void row(String[] cells) throws IOException {
+			if(!headed) {
+				writeHeader(new String[cells.length], new Aligned[0]);
+			}
+			writeRow(cells);
+		}
+
+		private void writeRow(String[] cells) throws IOException {
+			out.append('|');
+			for(String cell : cells) {
+				out.append(' ');
+				if(cell != null) {
+					for(int i = 0; i < cell.length(); i++) {
+						char c = cell.charAt(i);
+						if(c == '|') {
+							out.append("\\|");
+						}
+						else if(c == '\n') {
+							out.append("<br>");
+						}
+						else if(c != '\r') {
+							out.append(c);
+						}
+					}
+				}
+				out.append(" |");
+			}
+			out.append('\n');
+		}
+
+		@Override
+		public void end() {
+		}
+	}
+
+	private static final class Html implements TableEncoder {
+
+		private final Appendable out;
+		private Aligned[] alignments;
+
+		Html(Appendable out) {
+			this.out = out;
+		}
+
+		@Override
+		public void begin(String[] headings, Aligned[] alignments) throws IOException {
+			this.alignments = alignments;
+			out.append("<table>\n");
+			if(headings.length > 0) {
+				out.append("<thead>\n");
+				writeRow("th", headings);
+				out.append("</thead>\n");
+			}
+			out.append("<tbody>\n");
+		}
+
+		@Override
+		public void row(String[] cells) throws IOException {
+			writeRow("td", cells);
+		}
+
+		private void writeRow(String tag, String[] cells) throws IOException {
+			out.append("<tr>");
+			for(int i = 0; i < cells.length; i++) {
+				out.append('<').append(tag);
+				if(i < alignments.length && alignments[i] != Aligned.LEFT) {
+					out.append(alignments[i] == Aligned.RIGHT ? " style=\"text-align:right\"" : " style=\"text-align:center\"");
+				}
+				out.append('>');
+				if(cells[i] != null) {
+					escape(cells[i]);
+				}
+				out.append("</").append(tag).append('>');
+			}
+			out.append("</tr>\n");
+		}
+
+		private void escape(String cell) throws IOException {
+			for(int i = 0; i < cell.length(); i++) {
+				char c = cell.charAt(i);
+				switch(c) {
+				case '&': out.append("&amp;"); break;
+				case '<': out.append("&lt;"); break;
+				case '>': out.append("&gt;"); break;
+				case '"': out.append("&quot;"); break;
+				default: out.append(c);
+				}
+			}
+		}
+
+		@Override
+		public void end() throws IOException {
+			out.append("</tbody>\n</table>\n");
+		}
+	}
+
+	private static final class Csv implements TableEncoder {
+
+		private final Appendable out;
+
+		Csv(Appendable out) {
+			this.out = out;
+		}
+
+		@Override
+		public void begin(String[] headings, Aligned[] alignments) throws IOException {
+			if(headings.length > 0) {
+				row(headings);
+			}
+		}
+
+		@Override
+		public void row(String[] cells) throws IOException {
+			for(int i = 0; i < cells.length; i++) {
+				if(i > 0) {
+					out.append(',');
+				}
+				String cell = cells[i];
+				if(cell == null) {
+					continue;
+				}
+				if(needsQuotes(cell)) {
+					out.append('"');
+					for(int c = 0; c < cell.length(); c++) {
+						if(cell.charAt(c) == '"') {
+							out.append('"');
+						}
+						out.append(cell.charAt(c));
+					}
+					out.append('"');
+				}
+				else {
+					out.append(cell);
+				}
+			}
+			out.append("\r\n");
+		}
+
+		private static boolean needsQuotes(String cell) {
+			for(int i = 0; i < cell.length(); i++) {
+				char c = cell.charAt(i);
+				if(c == ',' || c == '"' || c == '\r' || c == '\n') {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void end() {
+		}
+	}
+
+	private static final class Console implements TableEncoder {
+
+		private final Appendable out;
+		private final ConsoleTable table;
+
+		Console(Appendable out, Style style) {
+			this.out = out;
+			this.table = new ConsoleTable().withStyle(style);
+		}
+
+		@Override
+		public void begin(String[] headings, Aligned[] alignments) {
+			if(headings.length > 0) {
+				Object[] headers = new Object[headings.length];
+				for(int i = 0; i < headings.length; i++) {
+					headers[i] = new ColumnFormat(headings[i], alignments[i]);
+				}
+				table.setHeaders(headers);
+			}
+		}
+
+		@Override
+		public void row(String[] cells) {
+			// the caller may reuse the array for the next row
+			table.addRow(cells.clone());
+		}
+
+		@Override
+		public void end() throws IOException {
+			table.renderTo(out);
+		}
+	}
+
+	private static final class Json implements TableEncoder {
+
+		private final Appendable out;
+		private String[] keys;
+		private boolean firstRow = true;
+
+		Json(Appendable out) {
+			this.out = out;
+		}
+
+		@Override
+		public void begin(String[] headings, Aligned[] alignments) throws IOException {
+			keys = headings;
+			out.append('[');
+		}
+
+		@Override
+		public void row(String[] cells) throws IOException {
+			out.append(firstRow ? "\n  " : ",\n  ");
+			firstRow = false;
+			out.append(keys.length > 0 ? '{' : '[');
+			for(int i = 0; i < cells.length; i++) {
+				if(i > 0) {
+					out.append(", ");
+				}
+				if(keys.length > 0) {
+					writeString(i < keys.length ? keys[i] : String.valueOf(i + 1));
+					out.append(": ");
+				}
+				if(cells[i] == null) {
+					out.append("null");
+				}
+				else if(isNumber(cells[i])) {
+					out.append(cells[i]);
+				}
+				else {
+					writeString(cells[i]);
+				}
+			}
+			out.append(keys.length > 0 ? '}' : ']');
+		}
+
+		private void writeString(String text) throws IOException {
+			out.append('"');
+			for(int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if(c == '"' || c == '\\') {
+					out.append('\\').append(c);
+				}
+				else if(c == '\n') {
+					out.append("\\n");
+				}
+				else if(c < 0x20) {
+					out.append(String.format("\\u%04x", (int) c));
+				}
+				else {
+					out.append(c);
+				}
+			}
+			out.append('"');
+		}
+
+		/**
+		 * @return true if <code>text</code> is a number in JSON's syntax, <code>-?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?</code>
+		 */
+		static boolean isNumber(String text) {
+			int i = 0;
+			int length = text.length();
+			if(i < length && text.charAt(i) == '-') {
+				i++;
+			}
+			if(i < length && text.charAt(i) == '0') {
+				i++;
+			}
+			else {
+				int digits = skipDigits(text, i);
+				if(digits == i) {
+					return false;
+				}
+				i = digits;
+			}
+			if(i < length && text.charAt(i) == '.') {
+				int digits = skipDigits(text, i + 1);
+				if(digits == i + 1) {
+					return false;
+				}
+				i = digits;
+			}
+			if(i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+				i++;
+				if(i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+					i++;
+				}
+				int digits = skipDigits(text, i);
+				if(digits == i) {
+					return false;
+				}
+				i = digits;
+			}
+			return i == length;
+		}
+
+		private static int skipDigits(String text, int i) {
+			while(i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+				i++;
+			}
+			return i;
+		}
+
+		@Override
+		public void end() throws IOException {
+			out.append(firstRow ? "]\n" : "\n]\n");
+		}
+	}
+
+}
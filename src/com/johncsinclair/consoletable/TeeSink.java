@@ -0,0 +1,267 @@
+package com.johncsinclair.consoletable;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An <code>Appendable</code> which writes what is appended to it to several sinks, such as the console, a log file and an audit stream,
+ * each with its own bounded queue, written by a task of an <code>Executor</code>. By default the tasks run on a pool of daemon threads
+ * shared by every <code>TeeSink</code>, so a render does not start a thread for each sink. 
+ * A slow sink only holds up the table being rendered once its queue is full, and a sink which fails does not stop the others.
+ * <p>
+ * Each append is copied to a <code>String</code> once, which is shared by the queues. A sink which is <code>Flushable</code>
+ * is flushed whenever its queue is empty, and when the tee is closed. {@link #close()} waits for every sink to write its queue,
+ * until the waiting thread is interrupted, and {@link #close(long, TimeUnit)} waits no longer than a timeout, 
+ * so a sink which hangs, such as a file on an unreachable network drive, cannot hold up the caller for ever.
+ * 
+ * @see ConsoleTable#renderTo(Appendable...)
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+public final class TeeSink implements Appendable, Closeable {
+
+	/** The number of appends, which are lines when a table is rendered, each sink's queue holds by default */
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/** the end of the queue, compared by identity */
+	private static final String END = new String();
+
+	/** The daemon threads which write the sinks of every <code>TeeSink</code> not given an <code>Executor</code>, kept while they are in use */
+	private static final ExecutorService SHARED_WRITERS = Executors.newCachedThreadPool(new WriterThreads());
+
+	private final Writer[] writers;
+	private final CountDownLatch written;
+	private boolean closed;
+
+	/**
+	 * @param sinks where to write what is appended
+	 */
+	public TeeSink(Appendable... sinks) {
+		this(DEFAULT_QUEUE_CAPACITY, sinks);
+	}
+
+	/**
+	 * @param queueCapacity the number of appends each sink can fall behind by before an append waits for it
+	 * @param sinks where to write what is appended
+	 */
+	public TeeSink(int queueCapacity, Appendable... sinks) {
+		this(SHARED_WRITERS, queueCapacity, sinks);
+	}
+
+	/**
+	 * @param executor runs a task for each sink, which writes its queue until the tee is closed, so it needs a thread for each sink
+	 * @param queueCapacity the number of appends each sink can fall behind by before an append waits for it
+	 * @param sinks where to write what is appended
+	 */
+	public TeeSink(Executor executor, int queueCapacity, Appendable... sinks) {
+		Objects.requireNonNull(executor, "executor");
+		if(queueCapacity < 1) {
+			throw new IllegalArgumentException("The queue capacity must be at least 1, not " + queueCapacity);
+		}
+		written = new CountDownLatch(sinks.length);
+		writers = new Writer[sinks.length];
+		for(int i = 0; i < sinks.length; i++) {
+			writers[i] = new Writer(Objects.requireNonNull(sinks[i], "sink"), queueCapacity, written);
+		}
+		for(Writer writer : writers) {
+			executor.execute(writer);
+		}
+	}
+
+	@Override
+	public TeeSink append(CharSequence text) throws IOException {
+		if(closed) {
+			throw new IOException("The TeeSink is closed");
+		}
+		String shared = String.valueOf(text);
+		if(shared.isEmpty()) {
+			return this;
+		}
+		for(Writer writer : writers) {
+			try {
+				writer.queue.put(shared);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for a slow sink");
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public TeeSink append(CharSequence text, int start, int end) throws IOException {
+		return append(String.valueOf(text).subSequence(start, end));
+	}
+
+	@Override
+	public TeeSink append(char c) throws IOException {
+		return append(String.valueOf(c));
+	}
+
+	/**
+	 * Wait for each sink to write what has been appended, then end its task.
+	 * 
+	 * @throws InterruptedIOException if the thread is interrupted while it waits, when the sinks are left to write what they can
+	 * @throws IOException the first exception thrown by a sink, with those of any other sinks suppressed,
+	 * or the <code>RuntimeException</code> or <code>Error</code> if that is what the first sink to fail threw
+	 */
+	@Override
+	public void close() throws IOException {
+		close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Wait no longer than <code>timeout</code> for each sink to write what has been appended, then end its task.
+	 * A sink which has not finished by then has the rest of its queue discarded, and its task ends once its current write returns.
+	 * 
+	 * @throws InterruptedIOException if the sinks have not all finished within <code>timeout</code>, 
+	 * or the thread is interrupted while it waits
+	 * @throws IOException the first exception thrown by a sink, with those of any other sinks suppressed,
+	 * or the <code>RuntimeException</code> or <code>Error</code> if that is what the first sink to fail threw
+	 */
+	public void close(long timeout, TimeUnit unit) throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+		try {
+			for(Writer writer : writers) {
+				if(!writer.queue.offer(END, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+					throw abandon(new InterruptedIOException("Timed out waiting for a slow sink"));
+				}
+			}
+			if(!written.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				throw abandon(new InterruptedIOException("Timed out waiting for a slow sink"));
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw abandon(new InterruptedIOException("Interrupted waiting for a slow sink"));
+		}
+		Throwable failure = null;
+		for(Writer writer : writers) {
+			if(writer.failure != null) {
+				if(failure == null) {
+					failure = writer.failure;
+				}
+				else {
+					failure.addSuppressed(writer.failure);
+				}
+			}
+		}
+		if(failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if(failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if(failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	/**
+	 * Discard what the sinks have still to write, and end each task once its current write returns.
+	 * 
+	 * @return <code>e</code>, to be thrown
+	 */
+	private InterruptedIOException abandon(InterruptedIOException e) {
+		for(Writer writer : writers) {
+			// only the writer takes from the queue, so there is room for the end once it is cleared
+			writer.queue.clear();
+			writer.queue.offer(END);
+		}
+		return e;
+	}
+
+	/**
+	 * The task which writes the queue of one sink. After the sink fails, with any exception or error,
+	 * the rest of its queue is taken and discarded, so that appends never wait for it.
+	 */
+	private static final class Writer implements Runnable {
+
+		private final Appendable sink;
+		private final BlockingQueue<String> queue;
+		private final CountDownLatch written;
+		/** read by {@link TeeSink#close()} after <code>written</code> has counted down */
+		private Throwable failure;
+
+		Writer(Appendable sink, int queueCapacity, CountDownLatch written) {
+			this.sink = sink;
+			this.queue = new ArrayBlockingQueue<>(queueCapacity);
+			this.written = written;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(true) {
+					String text = queue.poll();
+					if(text == null) {
+						flush();
+						text = queue.take();
+					}
+					if(text == END) {
+						flush();
+						return;
+					}
+					if(failure == null) {
+						try {
+							sink.append(text);
+						}
+						catch(IOException | RuntimeException | Error e) {
+							failure = e;
+						}
+					}
+				}
+			}
+			catch(InterruptedException e) {
+				failure = new InterruptedIOException("Interrupted writing to a sink");
+			}
+			finally {
+				written.countDown();
+			}
+		}
+
+		private void flush() {
+			if(failure == null && sink instanceof Flushable) {
+				try {
+					((Flushable) sink).flush();
+				}
+				catch(IOException | RuntimeException | Error e) {
+					failure = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes the shared daemon threads, so that a sink which hangs cannot keep the JVM from exiting
+	 */
+	private static final class WriterThreads implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable writer) {
+			Thread thread = new Thread(writer, "ConsoleTable-tee-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
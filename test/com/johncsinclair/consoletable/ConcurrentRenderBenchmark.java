@@ -0,0 +1,118 @@
+package com.johncsinclair.consoletable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * A benchmark of 10,000 concurrent tasks, each rendering small tables, like the requests of an admin API. 
+ * The render path takes no locks, it builds each table in its own <code>StringBuilder</code> and only reads a table shared by the tasks,
+ * so the throughput should grow with the number of threads up to the number of cores.
+ * <p>
+ * Run <code>main</code>, which runs the tasks on pools of 1, 2, 4 ... platform threads up to the number of cores, 
+ * then, on a JDK which has them, with a virtual thread for each task. 
+ * Add <code>-Djdk.tracePinnedThreads=full</code> to report any render which pins its virtual thread to its carrier.
+ * 
+ * @author Copyright (c) John C Sinclair 2021
+ */
+final class ConcurrentRenderBenchmark {
+
+	private static final int TASKS = 10_000;
+	private static final int TABLES_PER_TASK = 20;
+
+	private static final ConsoleTable SHARED_TABLE = new ConsoleTable(new Object[] { "-Host", "Load", "'Status" }, 
+			new Object[][] { { "alpha", 0.25, "OK" }, { "beta", 1.5, "OK" }, { "gamma", 12.0, "BUSY" } });
+
+	private ConcurrentRenderBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("Warming up");
+		run(Executors.newFixedThreadPool(cores));
+
+		for(int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2) {
+			report(threads + " platform threads", run(Executors.newFixedThreadPool(threads)));
+		}
+		ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+		if(virtualThreads == null) {
+			System.out.println("This JDK has no virtual threads");
+		}
+		else {
+			report(TASKS + " virtual threads", run(virtualThreads));
+		}
+	}
+
+	/**
+	 * @return an executor which starts a virtual thread for each task, or null if the JDK has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Start all the tasks together, and wait for them all to finish.
+	 * 
+	 * @return the number of tables rendered each second
+	 */
+	private static double run(ExecutorService executor) throws InterruptedException, ExecutionException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> tasks = new ArrayList<>(TASKS);
+		for(int i = 0; i < TASKS; i++) {
+			final int task = i;
+			tasks.add(executor.submit(() -> {
+				start.await();
+				return renderTables(task);
+			}));
+		}
+		long startNanos = System.nanoTime();
+		start.countDown();
+		long chars = 0;
+		for(Future<Integer> task : tasks) {
+			chars += task.get();
+		}
+		long nanos = System.nanoTime() - startNanos;
+		executor.shutdown();
+		if(chars == 0) {
+			throw new IllegalStateException("Nothing was rendered");
+		}
+		return (double) TASKS * TABLES_PER_TASK * 1e9 / nanos;
+	}
+
+	/**
+	 * render a new table of the task's own, and the shared table, alternately
+	 * 
+	 * @return the number of chars rendered, so that the renders cannot be optimised away
+	 */
+	private static int renderTables(int task) {
+		int chars = 0;
+		for(int i = 0; i < TABLES_PER_TASK; i++) {
+			if(i % 2 == 0) {
+				ConsoleTable requestTable = new ConsoleTable().withStyle(Styles.BASIC);
+				requestTable.setHeaders("-Request", "Millis");
+				requestTable.addRow("GET /task/" + task, i);
+				requestTable.addRow("GET /status", task % 100);
+				chars += requestTable.toString().length();
+			}
+			else {
+				chars += SHARED_TABLE.toString().length();
+			}
+		}
+		return chars;
+	}
+
+	private static void report(String threads, double tablesPerSecond) {
+		System.out.printf("%-22s %,12.0f tables/s%n", threads, tablesPerSecond);
+	}
+
+}
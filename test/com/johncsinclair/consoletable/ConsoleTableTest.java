@@ -2,13 +2,43 @@ package com.johncsinclair.consoletable;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.jupiter.api.Test;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import com.johncsinclair.consoletable.ColumnFormat.Aligned;
 
 
@@ -647,6 +677,1310 @@ class ConsoleTableTest {
 	        System.out.print(table);
 		}
 
+
+		@Test
+		void testMaxWidth() {
+			ConsoleTable cityTable = new ConsoleTable().withStyle(Styles.BASIC).withMaxWidth(40);
+			cityTable.setHeaders("-City", "-Description", "Population");
+			cityTable.addRow("Paris", "Capital of France, on the Seine", 2102650);
+			cityTable.addRow("Brisbane", "Capital of Queensland", 2560720);
+
+	        String expected =
+	        "+----------+--------------+------------+"+"\n"+
+	        "| City     | Description  | Population |"+"\n"+
+	        "+----------+--------------+------------+"+"\n"+
+	        "| Paris    | Capital of … |    2102650 |"+"\n"+
+	        "| Brisbane | Capital of … |    2560720 |"+"\n"+
+	        "+----------+--------------+------------+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(cityTable.toString().split("\n")), "test only the widest column is cut to fit");
+
+			assertEquals(cityTable.withMaxWidth(0).toString(), cityTable.withMaxWidth(80).toString(), "a table that fits is not changed");
+		}
+
+		@Test
+		void testFitColumnWidths() {
+			assertArrayEquals(new int[] { 3, 4, 5 }, ConsoleTable.fitColumnWidths(new int[] { 3, 4, 5 }, 12));
+			assertArrayEquals(new int[] { 3, 4, 4 }, ConsoleTable.fitColumnWidths(new int[] { 3, 4, 5 }, 11));
+			assertArrayEquals(new int[] { 3, 5, 4, 4 }, ConsoleTable.fitColumnWidths(new int[] { 3, 20, 4, 9 }, 16));
+			assertArrayEquals(new int[] { 0, 0 }, ConsoleTable.fitColumnWidths(new int[] { 6, 7 }, -2));
+		}
+
+
+		@Test
+		void testNestedTableInCell() {
+			// a cell whose toString() renders another table on the same thread, while the outer table is rendering
+			ConsoleTable inner = new ConsoleTable().withStyle(Styles.MINIMAL);
+			inner.addRow("in");
+			ConsoleTable outer = new ConsoleTable().withStyle(Styles.BASIC);
+			outer.addRow("out", new Object() {
+				@Override
+				public String toString() {
+					return inner.toString().trim();
+				}
+			});
+
+	        String expected =
+	        "+-----+----+"+"\n"+
+	        "| out | in |"+"\n"+
+	        "+-----+----+"+"\n";
+			assertEquals(expected, outer.toString());
+			assertEquals(expected, outer.toString(), "render again with the cached buffer");
+		}
+
+
+		@Test
+		void testRenderListener() {
+			List<RenderStatistics> reported = new ArrayList<>();
+			ConsoleTable petTable = new ConsoleTable().withStyle(Styles.BASIC).withRenderListener(reported::add);
+			petTable.setHeaders("Pet", "Age");
+			petTable.addRow("Cat", 10);
+			petTable.addRow("Dog", 5);
+			String rendered = petTable.toString();
+
+			assertEquals(1, reported.size());
+			RenderStatistics statistics = reported.get(0);
+			assertEquals(2, statistics.getRowCount());
+			assertEquals(2, statistics.getColumnCount());
+			assertEquals(6, statistics.getCellCount(), "header and data cells");
+			assertEquals(rendered.length(), statistics.getCharCount());
+			assertTrue(statistics.getTotalNanos() >= statistics.getDataRowNanos());
+
+			RenderMetrics metrics = new RenderMetrics();
+			petTable.withRenderListener(metrics);
+			petTable.toString();
+			petTable.toString();
+			assertEquals(2, metrics.getRenderCount());
+			assertEquals(4, metrics.getRowCount());
+			assertEquals(1.0, metrics.getBufferHitRate(), 0.0, "the second render reuses the buffer of the first");
+			metrics.reset();
+			assertEquals(0, metrics.getRenderCount());
+		}
+
+
+		@Test
+		void testFlightRecorderEvents() throws Exception {
+			ConsoleTable petTable = new ConsoleTable().withStyle(Styles.BASIC);
+			petTable.setHeaders("Pet", "Age");
+			petTable.addRow("Cat", 10);
+			petTable.addRow("Dog", new Object() {
+				@Override
+				public String toString() {
+					try {
+						Thread.sleep(2);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return "5";
+				}
+			});
+
+			Path recordingFile = Files.createTempFile("ConsoleTableTest", ".jfr");
+			try(Recording recording = new Recording()) {
+				recording.enable("com.johncsinclair.consoletable.ConsoleTableRender").withThreshold(Duration.ZERO);
+				recording.enable("com.johncsinclair.consoletable.ConsoleTableSlowCell");
+				recording.start();
+				petTable.toString();
+				recording.stop();
+				recording.dump(recordingFile);
+			}
+			List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+			Files.delete(recordingFile);
+
+			RecordedEvent render = events.stream()
+					.filter(e -> e.getEventType().getName().endsWith("ConsoleTableRender")).findFirst().get();
+			assertEquals(2, render.getInt("rows"));
+			assertEquals("BASIC", render.getString("style"));
+			assertEquals(petTable.toString().length(), render.getLong("chars"));
+
+			assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().endsWith("ConsoleTableSlowCell") && e.getInt("column") == 1),
+					"the slow cell in column 1 is recorded");
+		}
+
+
+		/**
+		 * an in-memory stand-in for a forward only <code>ResultSet</code>, which implements only the methods used by <code>ConsoleTable</code>
+		 */
+		private static ResultSet resultSetOf(String[] labels, int[] sqlTypes, int[] displaySizes, Object[][] data) {
+			ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(), 
+					new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> {
+				switch(method.getName()) {
+				case "getColumnCount":			return labels.length;
+				case "getColumnLabel":			return labels[(Integer) args[0] - 1];
+				case "getColumnType":			return sqlTypes[(Integer) args[0] - 1];
+				case "getColumnDisplaySize":	return displaySizes[(Integer) args[0] - 1];
+				default: throw new UnsupportedOperationException(method.getName());
+				}
+			});
+			int[] rowIndex = { -1 };
+			return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), 
+					new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+				switch(method.getName()) {
+				case "getMetaData":		return metaData;
+				case "next":			return ++rowIndex[0] < data.length;
+				case "getObject":		return data[rowIndex[0]][(Integer) args[0] - 1];
+				case "setFetchSize":	return null;
+				default: throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+
+		@Test
+		void testResultSet() throws Exception {
+			ResultSet resultSet = resultSetOf(new String[] { "Pet", "Age", "Notes" }, 
+					new int[] { Types.VARCHAR, Types.INTEGER, Types.VARCHAR }, new int[] { 5, 3, 200 },
+					new Object[][] {
+						{ "Cat", 10, "Sleeps all day" },
+						{ "Dog",  5, null },
+						{ "Axolotl", 3, "A very long description which is much wider than forty chars" } });
+			ConsoleTable petTable = ConsoleTable.from(resultSet, 100).withStyle(Styles.BASIC);
+			StringWriter out = new StringWriter();
+			petTable.renderTo(out);
+
+	        String expected =
+	        "+-------+-----+------------------------------------------+"+"\n"+
+	        "| Pet   | Age | Notes                                    |"+"\n"+
+	        "+-------+-----+------------------------------------------+"+"\n"+
+	        "| Cat   |  10 | Sleeps all day                           |"+"\n"+
+	        "| Dog   |   5 |                                          |"+"\n"+
+	        "| Axol… |   3 | A very long description which is much w… |"+"\n"+
+	        "+-------+-----+------------------------------------------+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(out.toString().split("\n")), "test widths from the ResultSetMetaData");
+		}
+
+
+		@Test
+		void testCsv() throws Exception {
+			Path csvFile = Files.createTempFile("ConsoleTableTest", ".csv");
+			Files.write(csvFile, ( "Name,City,Note\r\n"+
+					"Zoë,Zürich,\"Said \"\"hi\"\", left\"\r\n"+
+					"Bob,Paris,\n"+
+					"Al,\"St Lucia, Brisbane\",x\n").getBytes(StandardCharsets.UTF_8));
+			try {
+				ConsoleTable csvTable = ConsoleTable.fromCsv(csvFile).withStyle(Styles.BASIC).withAlignment(Aligned.LEFT);
+		        String expected =
+		        "+------+--------------------+-----------------+"+"\n"+
+		        "| Name | City               | Note            |"+"\n"+
+		        "+------+--------------------+-----------------+"+"\n"+
+		        "| Zoë  | Zürich             | Said \"hi\", left |"+"\n"+
+		        "| Bob  | Paris              |                 |"+"\n"+
+		        "| Al   | St Lucia, Brisbane | x               |"+"\n"+
+		        "+------+--------------------+-----------------+"+"\n";
+				assertLinesMatch( Arrays.asList(expected.split("\n")),
+						Arrays.asList(csvTable.toString().split("\n")), "test quoted and multi-byte fields");
+
+				// map the file in tiny chunks, so that records cross from one chunk into the overlap of the next
+				CsvRows wholeFile = new CsvRows(csvFile, CsvOptions.csv());
+				CsvRows chunked = new CsvRows(csvFile, CsvOptions.csv(), 8, 32);
+				Iterator<CsvRows.CsvRow> expectedRows = wholeFile.rows();
+				Iterator<CsvRows.CsvRow> chunkedRows = chunked.rows();
+				while(expectedRows.hasNext()) {
+					CsvRows.CsvRow expectedRow = expectedRows.next();
+					CsvRows.CsvRow chunkedRow = chunkedRows.next();
+					assertEquals(expectedRow.columnCount(), chunkedRow.columnCount());
+					for(int i = 0; i < expectedRow.columnCount(); i++) {
+						assertEquals(expectedRow.cell(i), chunkedRow.cell(i));
+						assertEquals(expectedRow.cellWidth(i), chunkedRow.cellWidth(i));
+					}
+				}
+				assertFalse(chunkedRows.hasNext());
+
+				assertThrows(IllegalStateException.class, () -> new CsvRows(csvFile, CsvOptions.csv(), 8, 4), "a record longer than the maximum");
+
+				// an escape sequence in a field is not counted in its width
+				Files.write(csvFile, ( "Name,Status\n"+
+						"Zoë,\u001B[31mdown\u001B[0m\n").getBytes(StandardCharsets.UTF_8));
+				CsvRows.CsvRow escaped = new CsvRows(csvFile, CsvOptions.csv()).rows().next();
+				assertEquals(3, escaped.cellWidth(0));
+				assertEquals(4, escaped.cellWidth(1));
+			}
+			finally {
+				Files.delete(csvFile);
+			}
+		}
+
+
+		public static class PetBean {
+			private final String name;
+			private final int age;
+
+			PetBean(String name, int age) {
+				this.name = name;
+				this.age = age;
+			}
+
+			public String getName() {
+				return name;
+			}
+
+			public int getAge() {
+				return age;
+			}
+
+			public boolean isOld() {
+				return age > 8;
+			}
+		}
+
+		public interface HasId<T> {
+			T getId();
+		}
+
+		public static class TaggedPet implements HasId<Long> {
+			private final long id;
+
+			TaggedPet(long id) {
+				this.id = id;
+			}
+
+			@Override
+			public Long getId() {
+				return id;
+			}
+
+			public String getName() {
+				return "pet " + id;
+			}
+		}
+
+		@Test
+		void testRecords() {
+			record Pet(String name, int age, LocalDate born) {}
+
+			List<Pet> pets = Arrays.asList(new Pet("Cat", 10, LocalDate.parse("2011-03-04")), new Pet("Dog", 5, null));
+			ConsoleTable petTable = ConsoleTable.ofRecords(Pet.class, pets).withStyle(Styles.BASIC);
+
+	        String expected =
+	        "+------+-----+------------+"+"\n"+
+	        "| name | age | born       |"+"\n"+
+	        "+------+-----+------------+"+"\n"+
+	        "| Cat  |  10 | 2011-03-04 |"+"\n"+
+	        "| Dog  |   5 |            |"+"\n"+
+	        "+------+-----+------------+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(petTable.toString().split("\n")), "test record components as columns");
+
+			ConsoleTable beanTable = ConsoleTable.ofRecords(PetBean.class, Arrays.asList(new PetBean("Cat", 10), new PetBean("Dog", 5))).withStyle(Styles.BASIC);
+
+	        String expectedBeans =
+	        "+-----+------+-------+"+"\n"+
+	        "| age | name | old   |"+"\n"+
+	        "+-----+------+-------+"+"\n"+
+	        "|  10 | Cat  | true  |"+"\n"+
+	        "|   5 | Dog  | false |"+"\n"+
+	        "+-----+------+-------+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedBeans.split("\n")),
+					Arrays.asList(beanTable.toString().split("\n")), "test bean properties as columns in alphabetical order");
+
+			ConsoleTable taggedTable = ConsoleTable.ofRecords(TaggedPet.class, Arrays.asList(new TaggedPet(7), new TaggedPet(12))).withStyle(Styles.BASIC);
+	        String expectedTagged =
+	        "+----+--------+"+"\n"+
+	        "| id | name   |"+"\n"+
+	        "+----+--------+"+"\n"+
+	        "|  7 | pet 7  |"+"\n"+
+	        "| 12 | pet 12 |"+"\n"+
+	        "+----+--------+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedTagged.split("\n")),
+					Arrays.asList(taggedTable.toString().split("\n")), "a getter with a generic type and its bridge method are one column, aligned by the specific type");
+		}
+
+
+		@Test
+		void testIterableHeaderData() {
+	        Set<String> petHeaders = new LinkedHashSet<>(Arrays.asList( "-Pet", "Age", "'Sex" ));
+	        List<Iterable<Object>> petData = new ArrayList<>();
+	        petData.add(new ArrayDeque<>(Arrays.asList( "Cat", 10, "F" )));
+	        Iterable<Object> dog = () -> Arrays.<Object>asList( "Dog", 5, "M" ).iterator();
+	        petData.add(dog);
+		    ConsoleTable petShopTable = new ConsoleTable(petHeaders, petData).withStyle(Styles.BASIC);
+
+	        String expected =
+	        "+-----+-----+-----+"+"\n"+
+	        "| Pet | Age | Sex |"+"\n"+
+	        "+-----+-----+-----+"+"\n"+
+	        "| Cat |  10 |  F  |"+"\n"+
+	        "| Dog |   5 |  M  |"+"\n"+
+	        "+-----+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "test new(Iterable, Iterable)");
+
+			petData.add(null);
+			petData.add(Arrays.asList("Axolotl"));
+	        String expectedView =
+	        "+---------+-----+-----+"+"\n"+
+	        "| Pet     | Age | Sex |"+"\n"+
+	        "+---------+-----+-----+"+"\n"+
+	        "| Cat     |  10 |  F  |"+"\n"+
+	        "| Dog     |   5 |  M  |"+"\n"+
+	        "|         |     |     |"+"\n"+
+	        "| Axolotl |     |     |"+"\n"+
+	        "+---------+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedView.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "the table is a view of the rows, not a copy");
+		}
+
+
+		@Test
+		void testLongRowSource() {
+			long[][] counts = { { 1, 42 }, null, { -7, Long.MIN_VALUE } };
+		    ConsoleTable countTable = new ConsoleTable("Id", "Count").withStyle(Styles.BASIC).withRows(RowSource.of(counts));
+
+	        String expected =
+	        "+----+----------------------+"+"\n"+
+	        "| Id |                Count |"+"\n"+
+	        "+----+----------------------+"+"\n"+
+	        "|  1 |                   42 |"+"\n"+
+	        "|    |                      |"+"\n"+
+	        "| -7 | -9223372036854775808 |"+"\n"+
+	        "+----+----------------------+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(countTable.toString().split("\n")), "test RowSource.of(long[][])");
+
+			Iterator<? extends CellAccessor> countRows = RowSource.of(counts).rows();
+			for(int i = 0; i < counts.length; i++) {
+				countRows.next();
+			}
+			assertFalse(countRows.hasNext());
+			assertThrows(NoSuchElementException.class, countRows::next);
+
+			countTable.withMaxWidth(17);
+	        String expectedNarrow =
+	        "+----+----------+"+"\n"+
+	        "| Id |    Count |"+"\n"+
+	        "+----+----------+"+"\n"+
+	        "|  1 |       42 |"+"\n"+
+	        "|    |          |"+"\n"+
+	        "| -7 | -922337… |"+"\n"+
+	        "+----+----------+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedNarrow.split("\n")),
+					Arrays.asList(countTable.toString().split("\n")), "cells appended by appendCell are truncated in place");
+		}
+
+
+		@Test
+		void testOffHeapRows() {
+		    ConsoleTable petShopTable = new ConsoleTable("-Pet", "Age", "'Sex").withStyle(Styles.BASIC);
+		    petShopTable.addRow("Cat", 10, "F");
+		    petShopTable.withOffHeapRows();
+		    petShopTable.addRow("Dög", 5, null);
+		    petShopTable.addRow();
+		    petShopTable.addRow("🐍 Snake", 2);
+
+	        String expected =
+	        "+---------+-----+-----+"+"\n"+
+	        "| Pet     | Age | Sex |"+"\n"+
+	        "+---------+-----+-----+"+"\n"+
+	        "| Cat     |  10 |  F  |"+"\n"+
+	        "| Dög     |   5 |     |"+"\n"+
+	        "|         |     |     |"+"\n"+
+	        "| 🐍 Snake |   2 |     |"+"\n"+
+	        "+---------+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "test withOffHeapRows()");
+
+			// rows which overflow a block go into a new block
+			OffHeapRows offHeapRows = new OffHeapRows(32);
+			offHeapRows.add(new Object[] { "a longer cell than the block" });
+			offHeapRows.add(new Object[] { "b", null });
+			offHeapRows.add(new Object[] { "c" });
+			List<String> cells = new ArrayList<>();
+			for(Iterator<? extends CellAccessor> i = offHeapRows.rows(); i.hasNext(); ) {
+				CellAccessor row = i.next();
+				for(int column = 0; column < row.columnCount(); column++) {
+					cells.add(row.cellWidth(column) + ":" + row.cell(column));
+				}
+			}
+			assertEquals(Arrays.asList("28:a longer cell than the block", "1:b", "0:null", "1:c"), cells);
+			assertArrayEquals(new int[] { 28, 0 }, offHeapRows.columnWidths());
+		}
+
+
+		@Test
+		void testSpillRows() {
+		    ConsoleTable petShopTable = new ConsoleTable("-Pet", "Age", "'Sex").withStyle(Styles.BASIC).withMaxRowsInMemory(2);
+		    petShopTable.addRow("Cat", 10, "F");
+		    petShopTable.addRow("Dög", 5, null);
+		    petShopTable.addRow();
+		    petShopTable.addRow("🐍 Snake", 2);
+		    petShopTable.addRow("Axolotl", 1, "M");
+
+	        String expected =
+	        "+---------+-----+-----+"+"\n"+
+	        "| Pet     | Age | Sex |"+"\n"+
+	        "+---------+-----+-----+"+"\n"+
+	        "| Cat     |  10 |  F  |"+"\n"+
+	        "| Dög     |   5 |     |"+"\n"+
+	        "|         |     |     |"+"\n"+
+	        "| 🐍 Snake |   2 |     |"+"\n"+
+	        "| Axolotl |   1 |  M  |"+"\n"+
+	        "+---------+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "test withMaxRowsInMemory()");
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "the spilled rows are read again for each render");
+
+			// rows which do not fit in the buffer are read in more than one go
+			SpillRows spillRows = new SpillRows(16);
+			for(int i = 0; i < 100; i++) {
+				spillRows.add(new Object[] { i, i % 3 == 0 ? null : "row " + i + " of 100" });
+			}
+			assertFalse(spillRows.rows().hasNext(), "only the rows of ended runs are read");
+			spillRows.endRun();
+			int rowCount = 0;
+			for(Iterator<? extends CellAccessor> i = spillRows.rows(); i.hasNext(); rowCount++) {
+				CellAccessor row = i.next();
+				assertEquals(Long.valueOf(rowCount), row.cell(0), "a spilled number is read back as a number");
+				assertEquals(rowCount % 3 == 0 ? null : "row " + rowCount + " of 100", row.cell(1));
+			}
+			assertEquals(100, rowCount);
+			assertArrayEquals(new int[] { 2, 13 }, spillRows.columnWidths());
+		}
+
+
+		@Test
+		void testSortBy() {
+		    ConsoleTable petShopTable = new ConsoleTable("-Pet", "Age", "'Sex").withStyle(Styles.BASIC);
+		    petShopTable.addRow("Cat", 10, "F");
+		    petShopTable.addRow("Dog", 5, "M");
+		    petShopTable.addRow("Axolotl", null, "M");
+		    petShopTable.addRow("Budgie", 5, "F");
+
+		    petShopTable.withSortBy(1, null, false);
+	        String expectedByAge =
+	        "+---------+-----+-----+"+"\n"+
+	        "| Pet     | Age | Sex |"+"\n"+
+	        "+---------+-----+-----+"+"\n"+
+	        "| Cat     |  10 |  F  |"+"\n"+
+	        "| Dog     |   5 |  M  |"+"\n"+
+	        "| Budgie  |   5 |  F  |"+"\n"+
+	        "| Axolotl |     |  M  |"+"\n"+
+	        "+---------+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedByAge.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "sort descending, equal rows keep their order and empty cells are last");
+
+		    petShopTable.withSortBy(0, Comparator.comparing(String::length), true);
+	        String expectedByAgeThenName =
+	        "+---------+-----+-----+"+"\n"+
+	        "| Pet     | Age | Sex |"+"\n"+
+	        "+---------+-----+-----+"+"\n"+
+	        "| Cat     |  10 |  F  |"+"\n"+
+	        "| Dog     |   5 |  M  |"+"\n"+
+	        "| Budgie  |   5 |  F  |"+"\n"+
+	        "| Axolotl |     |  M  |"+"\n"+
+	        "+---------+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedByAgeThenName.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "sort by a second column");
+
+		    ConsoleTable byNameLength = new ConsoleTable("-Pet", "Age").withStyle(Styles.BASIC).withSortBy(0, Comparator.comparing(String::length), true).withSortBy(1, null, true);
+		    byNameLength.addRow("Budgie", 5);
+		    byNameLength.addRow("Dog", 5);
+		    byNameLength.addRow("Cat", 2);
+	        String expectedByNameLength =
+	        "+--------+-----+"+"\n"+
+	        "| Pet    | Age |"+"\n"+
+	        "+--------+-----+"+"\n"+
+	        "| Cat    |   2 |"+"\n"+
+	        "| Dog    |   5 |"+"\n"+
+	        "| Budgie |   5 |"+"\n"+
+	        "+--------+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedByNameLength.split("\n")),
+					Arrays.asList(byNameLength.toString().split("\n")), "sort with a comparator, then by natural order");
+
+			assertThrows(IllegalStateException.class, () -> new ConsoleTable("Pet").withOffHeapRows().withSortBy(0, null, true));
+		}
+
+		@Test
+		void testSortByLargeAndSpilled() {
+			// more rows than the parallel sort threshold, with whole number keys sorted as primitives and decimal keys with a comparator
+			List<Object[]> data = new ArrayList<>();
+			for(int i = 0; i < 20_000; i++) {
+				data.add(new Object[] { (i * 7919) % 20_000, ((i * 104729) % 20_000) / 2.0 });
+			}
+			List<Object[]> expectedRows = new ArrayList<>(data);
+			expectedRows.sort(Comparator.comparing(row -> (Integer) row[0]));
+			ConsoleTable table = new ConsoleTable(data).withStyle(Styles.MINIMAL);
+			table.withSortBy(0, null, true);
+			String[] lines = table.toString().split("\n");
+			for(int i = 0; i < expectedRows.size(); i++) {
+				assertEquals(expectedRows.get(i)[0].toString(), lines[i].substring(0, 5).trim());
+			}
+
+			// spilled in sorted runs of at most 1000 rows, and merged when rendered
+			ConsoleTable spilled = new ConsoleTable("Id", "Size").withStyle(Styles.MINIMAL).withSortBy(1, null, false).withMaxRowsInMemory(1000);
+			spilled.addAll(data);
+			expectedRows.sort(Comparator.comparing(row -> (Double) row[1], Comparator.reverseOrder()));
+			lines = spilled.toString().split("\n");
+			assertEquals(expectedRows.size() + 1, lines.length);
+			for(int i = 0; i < expectedRows.size(); i++) {
+				assertEquals(expectedRows.get(i)[1].toString(), lines[i + 1].substring(6).trim());
+			}
+		}
+
+
+		@Test
+		void testTopK() {
+		    ConsoleTable slowest = new ConsoleTable("-Endpoint", "Millis").withStyle(Styles.BASIC).withTopK(3, 1, null);
+		    for(int i = 0; i < 10_000; i++) {
+		    	slowest.addRow("/api/" + i, (i * 7919) % 10_000);
+		    }
+		    slowest.addRow("/health", null);
+
+	        String expected =
+	        "+-----------+--------+"+"\n"+
+	        "| Endpoint  | Millis |"+"\n"+
+	        "+-----------+--------+"+"\n"+
+	        "| /api/2321 |   9999 |"+"\n"+
+	        "| /api/4642 |   9998 |"+"\n"+
+	        "| /api/6963 |   9997 |"+"\n"+
+	        "+-----------+--------+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(slowest.toString().split("\n")), "test withTopK()");
+
+		    ConsoleTable youngest = new ConsoleTable("-Pet", "Age").withStyle(Styles.BASIC);
+		    youngest.addRow("Cat", 10);
+		    youngest.addRow("Dog", 5);
+		    youngest.addRow("Budgie", 2);
+		    youngest.withTopK(2, 1, Comparator.<Integer>reverseOrder());
+		    youngest.addRow("Axolotl", 1);
+	        String expectedYoungest =
+	        "+---------+-----+"+"\n"+
+	        "| Pet     | Age |"+"\n"+
+	        "+---------+-----+"+"\n"+
+	        "| Axolotl |   1 |"+"\n"+
+	        "| Budgie  |   2 |"+"\n"+
+	        "+---------+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedYoungest.split("\n")),
+					Arrays.asList(youngest.toString().split("\n")), "rows added before withTopK() are ranked, and a reversed comparator keeps the smallest");
+		}
+
+
+		@Test
+		void testGroupByAggregate() {
+		    ConsoleTable salesTable = new ConsoleTable("-Region", "-Pet", "Sold", "Price").withStyle(Styles.BASIC)
+		    		.withGroupBy(0).withAggregate(2, Aggregate.SUM).withAggregate(3, Aggregate.AVG);
+		    salesTable.addRow("North", "Cat", 10, 20.0);
+		    salesTable.addRow("North", "Dog", 5, 30.0);
+		    salesTable.addRow("South", "Budgie", 1200, 10.0);
+
+	        String expected =
+	        "+--------+--------+------+-------+"+"\n"+
+	        "| Region | Pet    | Sold | Price |"+"\n"+
+	        "+--------+--------+------+-------+"+"\n"+
+	        "| North  | Cat    |   10 |  20.0 |"+"\n"+
+	        "| North  | Dog    |    5 |  30.0 |"+"\n"+
+	        "+--------+--------+------+-------+"+"\n"+
+	        "| North  |        |   15 |  25.0 |"+"\n"+
+	        "+--------+--------+------+-------+"+"\n"+
+	        "| South  | Budgie | 1200 |  10.0 |"+"\n"+
+	        "+--------+--------+------+-------+"+"\n"+
+	        "| South  |        | 1200 |  10.0 |"+"\n"+
+	        "+--------+--------+------+-------+"+"\n"+
+	        "| Total  |        | 1215 |  20.0 |"+"\n"+
+	        "+--------+--------+------+-------+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(salesTable.toString().split("\n")), "test withGroupBy() and withAggregate()");
+
+		    ConsoleTable countTable = new ConsoleTable("-Pet", "Age").withStyle(Styles.BASIC).withRowLines(true)
+		    		.withAggregate(0, Aggregate.COUNT).withAggregate(1, Aggregate.MAX);
+		    countTable.addRow("Cat", 10);
+		    countTable.addRow(null, 5);
+	        String expectedCount =
+	        "+-----+-----+"+"\n"+
+	        "| Pet | Age |"+"\n"+
+	        "+-----+-----+"+"\n"+
+	        "| Cat |  10 |"+"\n"+
+	        "+-----+-----+"+"\n"+
+	        "|     |   5 |"+"\n"+
+	        "+-----+-----+"+"\n"+
+	        "| 1   |  10 |"+"\n"+
+	        "+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedCount.split("\n")),
+					Arrays.asList(countTable.toString().split("\n")), "a grand total without groups, after row lines");
+		}
+
+
+		@Test
+		void testWithColumns() {
+		    ConsoleTable petShopTable = new ConsoleTable("-Pet", "Age", "'Sex", "Notes").withStyle(Styles.BASIC);
+		    petShopTable.addRow("Cat", 10, "F", new Object() {
+				@Override
+				public String toString() {
+					throw new AssertionError("a hidden cell was read");
+				}
+			});
+		    petShopTable.addRow("Dog", 5);
+		    petShopTable.withColumns(2, 0);
+
+	        String expected =
+	        "+-----+-----+"+"\n"+
+	        "| Sex | Pet |"+"\n"+
+	        "+-----+-----+"+"\n"+
+	        "|  F  | Cat |"+"\n"+
+	        "|     | Dog |"+"\n"+
+	        "+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "test withColumns(int...)");
+
+		    petShopTable.withColumns("Age", "Pet");
+	        String expectedByName =
+	        "+-----+-----+"+"\n"+
+	        "| Age | Pet |"+"\n"+
+	        "+-----+-----+"+"\n"+
+	        "|  10 | Cat |"+"\n"+
+	        "|   5 | Dog |"+"\n"+
+	        "+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedByName.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "test withColumns(String...)");
+			assertThrows(IllegalArgumentException.class, () -> petShopTable.withColumns("Price"));
+		}
+
+
+		@Test
+		void testFilter() {
+		    ConsoleTable petShopTable = new ConsoleTable("-Pet", "Age", "'Sex").withStyle(Styles.BASIC)
+		    		.withAggregate(1, Aggregate.SUM);
+		    petShopTable.addRow("Cat", 10, "F");
+		    petShopTable.addRow("Axolotl", 1, "M");
+		    petShopTable.addRow("Dog", 5, "M");
+		    petShopTable.addRow();
+		    petShopTable.withFilter(row -> row.length > 2 && "M".equals(row[2]));
+
+	        String expected =
+	        "+---------+-----+-----+"+"\n"+
+	        "| Pet     | Age | Sex |"+"\n"+
+	        "+---------+-----+-----+"+"\n"+
+	        "| Axolotl |   1 |  M  |"+"\n"+
+	        "| Dog     |   5 |  M  |"+"\n"+
+	        "+---------+-----+-----+"+"\n"+
+	        "| Total   |   6 |     |"+"\n"+
+	        "+---------+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "test withFilter()");
+
+			// a sorted table is filtered in its sorted order, and rows from a RowSource are tested as arrays
+		    petShopTable.withFilter(row -> row.length == 0 || !"Axolotl".equals(row[0])).withSortBy(1, null, true).withAggregate(1, null);
+	        String expectedSorted =
+	        "+-----+-----+-----+"+"\n"+
+	        "| Pet | Age | Sex |"+"\n"+
+	        "+-----+-----+-----+"+"\n"+
+	        "| Dog |   5 |  M  |"+"\n"+
+	        "| Cat |  10 |  F  |"+"\n"+
+	        "|     |     |     |"+"\n"+
+	        "+-----+-----+-----+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedSorted.split("\n")),
+					Arrays.asList(petShopTable.toString().split("\n")), "test withFilter() on a sorted table");
+
+			ConsoleTable counts = new ConsoleTable("Id", "Count").withStyle(Styles.BASIC)
+					.withRows(RowSource.of(new long[][] { { 1, 42 }, { 2, 7 }, { 3, 1234 } })).withFilter(row -> (Long) row[1] > 10);
+	        String expectedCounts =
+	        "+----+-------+"+"\n"+
+	        "| Id | Count |"+"\n"+
+	        "+----+-------+"+"\n"+
+	        "|  1 |    42 |"+"\n"+
+	        "|  3 |  1234 |"+"\n"+
+	        "+----+-------+"+"\n";
+			assertLinesMatch( Arrays.asList(expectedCounts.split("\n")),
+					Arrays.asList(counts.toString().split("\n")), "test withFilter() on a RowSource");
+		}
+
+
+		@Test
+		void testLiveView() throws IOException {
+			List<List<Object>> hosts = new ArrayList<>();
+			hosts.add(new ArrayList<>(Arrays.asList("alpha", 100)));
+			hosts.add(new ArrayList<>(Arrays.asList("beta", 20)));
+			ConsoleTable hostTable = new ConsoleTable(Arrays.asList("-Host", "Load"), hosts).withStyle(Styles.BASIC);
+			StringBuilder terminal = new StringBuilder();
+			LiveView view = hostTable.liveView(terminal);
+
+			view.update();
+			assertEquals(hostTable.toString(), terminal.toString(), "the first update prints the whole table");
+
+			terminal.setLength(0);
+			hosts.get(1).set(1, 5);
+			view.update();
+			assertEquals("\u001B[2A\u001B[13G 5", terminal.toString().substring(0, 11), "only the changed cell is redrawn");
+			assertEquals("\u001B[2B\r", terminal.toString().substring(11), "the cursor is left below the table");
+
+			terminal.setLength(0);
+			assertEquals(0, view.update(), "nothing is redrawn when nothing has changed");
+
+			terminal.setLength(0);
+			hosts.remove(1);
+			view.update();
+			assertEquals("\u001B[2A\u001B[1G+-------+------+\u001B[1B\r\u001B[J", terminal.toString(), "the columns keep their width, and the old bottom line is erased");
+		}
+
+
+		@Test
+		void testAnsiStyles() {
+			Object[][] checks = { { "disk", "OK" }, { "network", "\u001B[31mFAILED\u001B[0m" } };
+			ConsoleTable checkTable = new ConsoleTable(new Object[] { "-Check", "-Status" }, checks).withStyle(Styles.BASIC);
+			assertEquals(
+					  "+---------+--------+\n"
+					+ "| Check   | Status |\n"
+					+ "+---------+--------+\n"
+					+ "| disk    | OK     |\n"
+					+ "| network | \u001B[31mFAILED\u001B[0m |\n"
+					+ "+---------+--------+\n", checkTable.toString(), "the escapes in a cell are not counted in its width");
+
+			checkTable.withCellStyler((cell, column) -> "OK".equals(cell) ? Ansi.GREEN : null);
+			assertTrue(checkTable.toString().contains("| \u001B[32mOK    \u001B[0m |"), "the style is written before the cell and its padding, and reset after them");
+
+			checkTable.withMaxWidth(16);
+			assertTrue(checkTable.toString().contains("| \u001B[31mFAI…\u001B[0m |"), "a cut cell is reset after its ellipsis");
+		}
+
+
+		@Test
+		void testHighlightRules() {
+			ColumnFormat latency = new ColumnFormat("Latency").withHighlightAbove(500, Ansi.RED).withHighlightAbove(200, Ansi.YELLOW);
+			ColumnFormat status = new ColumnFormat("-Status").withHighlight(cell -> cell.toString().startsWith("ERR"), Ansi.BOLD);
+			Object[][] requests = { { 600, "OK" }, { 200.5, "OK" }, { 200L, "ERROR" }, { null, "OK" } };
+			ConsoleTable requestTable = new ConsoleTable(new Object[] { latency, status }, requests).withStyle(Styles.BASIC);
+			assertEquals(
+					  "+---------+--------+\n"
+					+ "| Latency | Status |\n"
+					+ "+---------+--------+\n"
+					+ "| \u001B[31m    600\u001B[0m | OK     |\n"
+					+ "| \u001B[33m  200.5\u001B[0m | OK     |\n"
+					+ "|     200 | \u001B[1mERROR \u001B[0m |\n"
+					+ "|         | OK     |\n"
+					+ "+---------+--------+\n", requestTable.toString(), "the first highlight which matches each cell styles it");
+
+			requestTable.withCellStyler((cell, column) -> column == 1 ? Ansi.GREEN : null);
+			assertTrue(requestTable.toString().contains("|     200 | \u001B[1mERROR \u001B[0m |\n|         | \u001B[32mOK    \u001B[0m |"), 
+					"the cell styler styles the cells which no highlight matches");
+			assertThrows(IllegalArgumentException.class, () -> latency.withHighlightBelow(Double.NaN, Ansi.RED));
+
+			// text cells, such as the fields of a CSV file, are compared by the numbers they display
+			Object[][] textRequests = { { "600", "OK" }, { "200.5", "OK" }, { "slow", "OK" } };
+			ConsoleTable textTable = new ConsoleTable(new Object[] { latency, status }, textRequests).withStyle(Styles.BASIC);
+			assertEquals(
+					  "+---------+--------+\n"
+					+ "| Latency | Status |\n"
+					+ "+---------+--------+\n"
+					+ "| \u001B[31m    600\u001B[0m | OK     |\n"
+					+ "| \u001B[33m  200.5\u001B[0m | OK     |\n"
+					+ "|    slow | OK     |\n"
+					+ "+---------+--------+\n", textTable.toString(), "numeric text is highlighted like the number");
+		}
+
+
+		@Test
+		void testEncoders() throws IOException {
+			Object[][] cities = { { "Paris", 48.86 }, { "A|B <&>", null }, { "\"Big\", Apple", -73.99 } };
+			ConsoleTable cityTable = new ConsoleTable(new Object[] { "-City", "'Lat" }, cities);
+			StringBuilder markdown = new StringBuilder();
+			StringBuilder html = new StringBuilder();
+			StringBuilder csv = new StringBuilder();
+			StringBuilder json = new StringBuilder();
+			cityTable.encodeTo(TableEncoders.markdown(markdown), TableEncoders.html(html), TableEncoders.csv(csv), TableEncoders.json(json));
+
+			assertEquals(
+					  "| City | Lat |\n"
+					+ "|---|:---:|\n"
+					+ "| Paris | 48.86 |\n"
+					+ "| A\\|B <&> |  |\n"
+					+ "| \"Big\", Apple | -73.99 |\n", markdown.toString());
+			assertEquals(
+					  "<table>\n"
+					+ "<thead>\n"
+					+ "<tr><th>City</th><th style=\"text-align:center\">Lat</th></tr>\n"
+					+ "</thead>\n"
+					+ "<tbody>\n"
+					+ "<tr><td>Paris</td><td style=\"text-align:center\">48.86</td></tr>\n"
+					+ "<tr><td>A|B &lt;&amp;&gt;</td><td style=\"text-align:center\"></td></tr>\n"
+					+ "<tr><td>&quot;Big&quot;, Apple</td><td style=\"text-align:center\">-73.99</td></tr>\n"
+					+ "</tbody>\n"
+					+ "</table>\n", html.toString());
+			assertEquals("City,Lat\r\nParis,48.86\r\nA|B <&>,\r\n\"\"\"Big\"\", Apple\",-73.99\r\n", csv.toString());
+			assertEquals(
+					  "[\n"
+					+ "  {\"City\": \"Paris\", \"Lat\": 48.86},\n"
+					+ "  {\"City\": \"A|B <&>\", \"Lat\": null},\n"
+					+ "  {\"City\": \"\\\"Big\\\", Apple\", \"Lat\": -73.99}\n"
+					+ "]\n", json.toString());
+
+			StringBuilder filtered = new StringBuilder();
+			cityTable.withFilter(row -> row[1] != null).withColumns(1).encodeTo(TableEncoders.csv(filtered));
+			assertEquals("Lat\r\n48.86\r\n-73.99\r\n", filtered.toString(), "the rows are filtered and the columns chosen as they are for the console");
+		}
+
+
+		@Test
+		void testRenderToSeveralSinks() throws IOException {
+			ConsoleTable petTable = new ConsoleTable(new Object[] { "-Pet", "Age" }, new Object[][] { { "Cat", 10 }, { "Dog", 5 } });
+			StringBuilder console = new StringBuilder();
+			StringBuilder log = new StringBuilder();
+			petTable.renderTo(console, log);
+			assertEquals(petTable.toString(), console.toString());
+			assertEquals(petTable.toString(), log.toString());
+
+			Appendable broken = new Appendable() {
+				@Override
+				public Appendable append(CharSequence text) throws IOException {
+					throw new IOException("disk full");
+				}
+				@Override
+				public Appendable append(CharSequence text, int start, int end) throws IOException {
+					throw new IOException("disk full");
+				}
+				@Override
+				public Appendable append(char c) throws IOException {
+					throw new IOException("disk full");
+				}
+			};
+			StringBuilder audit = new StringBuilder();
+			IOException thrown = assertThrows(IOException.class, () -> petTable.renderTo(broken, audit));
+			assertEquals("disk full", thrown.getMessage());
+			assertEquals(petTable.toString(), audit.toString(), "a sink which fails does not stop the others");
+		}
+
+
+		@Test
+		void testTeeSinkHungSink() throws Exception {
+			ConsoleTable petTable = new ConsoleTable(new Object[] { "-Pet", "Age" }, new Object[][] { { "Cat", 10 }, { "Dog", 5 } });
+			CountDownLatch reachable = new CountDownLatch(1);
+			Appendable hung = new Appendable() {
+				@Override
+				public Appendable append(CharSequence text) throws IOException {
+					try {
+						reachable.await();
+					}
+					catch(InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+					return this;
+				}
+				@Override
+				public Appendable append(CharSequence text, int start, int end) throws IOException {
+					return append(text.subSequence(start, end));
+				}
+				@Override
+				public Appendable append(char c) throws IOException {
+					return append(String.valueOf(c));
+				}
+			};
+			ExecutorService writers = Executors.newCachedThreadPool();
+			try {
+				StringBuilder console = new StringBuilder();
+				TeeSink timed = new TeeSink(writers, 64, console, hung);
+				timed.append(petTable.toString());
+				assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertThrows(InterruptedIOException.class, () -> timed.close(100, TimeUnit.MILLISECONDS)));
+				assertEquals(petTable.toString(), console.toString(), "the other sinks are written");
+
+				TeeSink interrupted = new TeeSink(writers, 64, hung);
+				interrupted.append(petTable.toString());
+				Future<?> closing = writers.submit(() -> {
+					assertThrows(InterruptedIOException.class, interrupted::close);
+					assertTrue(Thread.currentThread().isInterrupted(), "the interrupt is kept");
+					return null;
+				});
+				assertThrows(TimeoutException.class, () -> closing.get(100, TimeUnit.MILLISECONDS));
+				closing.cancel(true);
+				assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+					while(!closing.isDone()) {
+						Thread.sleep(10);
+					}
+				});
+			}
+			finally {
+				reachable.countDown();
+				writers.shutdown();
+			}
+			assertTrue(writers.awaitTermination(5, TimeUnit.SECONDS), "the writers end once the sink returns");
+		}
+
+
+		@Test
+		void testPublisher() {
+			ConsoleTable cityTable = new ConsoleTable(new Object[] { "-City", "Lat" }, new Object[][] { { "Zürich", 47.37 }, { "Paris", 48.86 } });
+			List<String> chunks = new ArrayList<>();
+			boolean[] completed = { false };
+			Flow.Subscriber<ByteBuffer> oneAtATime = new Flow.Subscriber<ByteBuffer>() {
+				private Flow.Subscription subscription;
+
+				@Override
+				public void onSubscribe(Flow.Subscription subscription) {
+					this.subscription = subscription;
+					subscription.request(1);
+				}
+
+				@Override
+				public void onNext(ByteBuffer chunk) {
+					chunks.add(StandardCharsets.UTF_8.decode(chunk).toString());
+					if(chunks.size() < 3) {
+						subscription.request(1);
+					}
+					else {
+						subscription.cancel();
+					}
+				}
+
+				@Override
+				public void onError(Throwable e) {
+					fail(e);
+				}
+
+				@Override
+				public void onComplete() {
+					completed[0] = true;
+				}
+			};
+
+			// render on the subscribing thread, 16 chars to a chunk
+			new RenderPublisher(cityTable, StandardCharsets.UTF_8, Runnable::run, 16).subscribe(oneAtATime);
+			assertEquals(3, chunks.size(), "no more chunks are rendered after the subscription is cancelled");
+			assertEquals(cityTable.toString().substring(0, 48), String.join("", chunks));
+			assertFalse(completed[0]);
+
+			chunks.clear();
+			cityTable.publisher(StandardCharsets.UTF_8, Runnable::run).subscribe(oneAtATime);
+			assertEquals(Arrays.asList(cityTable.toString()), chunks, "a small table is one chunk");
+			assertTrue(completed[0]);
+		}
+
+
+		@Test
+		void testConcurrentRenders() throws Exception {
+			ConsoleTable sharedTable = new ConsoleTable(new Object[] { "-Host", "Load" }, new Object[][] { { "alpha", 0.25 }, { "beta", 1.5 } });
+			String expected = sharedTable.toString();
+			ExecutorService executor = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<String>> renders = new ArrayList<>();
+				for(int i = 0; i < 200; i++) {
+					renders.add(executor.submit(() -> sharedTable.toString()));
+				}
+				for(Future<String> render : renders) {
+					assertEquals(expected, render.get(), "a table can be rendered by many threads at once");
+				}
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+
+
+		@Test
+		void testHeaderLinesRenderedOnce() {
+			int[] headingReads = { 0 };
+			Object heading = new Object() {
+				@Override
+				public String toString() {
+					headingReads[0]++;
+					return "Pet";
+				}
+			};
+			ConsoleTable petTable = new ConsoleTable(new Object[] { heading, "-Age" }, new Object[][] { { "Cat", 10 }, { "Dog", 5 } }).withStyle(Styles.BASIC);
+			String expected = petTable.toString();
+			assertEquals(2, headingReads[0], "the heading is read to measure it and to render it");
+			assertEquals(expected, petTable.toString());
+			assertEquals(3, headingReads[0], "the heading lines are used again while the columns are the same widths");
+
+			petTable.addRow("Zebra", 3);
+			petTable.toString();
+			assertEquals(5, headingReads[0], "the heading lines are rendered again when a column is wider");
+
+			petTable.withAlignment(Aligned.CENTRE);
+			assertTrue(petTable.toString().contains("|  Cat  | 10  |"), "the alignments are resolved again when the table's alignment changes");
+		}
+
+
+		@Test
+		void testMalformedStyles() {
+			class MissingCorner implements Style {
+				@Override
+				public String getPattern(Row row, Column column) {
+					return row == Row.TOP && column == Column.RIGHT ? null : row == Row.HDRLINE && column == Column.COLLINE ? "++" : "+";
+				}
+			}
+			IllegalArgumentException missing = assertThrows(IllegalArgumentException.class, () -> new ConsoleTable().withStyle(new MissingCorner()));
+			assertTrue(missing.getMessage().startsWith("The RIGHT pattern of the TOP row of the style"), missing.getMessage());
+
+			class CrookedLine implements Style {
+				@Override
+				public String getPattern(Row row, Column column) {
+					return row == Row.HDRLINE && column == Column.COLLINE ? "++" : "+";
+				}
+			}
+			IllegalArgumentException crooked = assertThrows(IllegalArgumentException.class, () -> new ConsoleTable().withStyle(new CrookedLine()));
+			assertTrue(crooked.getMessage().startsWith("The COLLINE pattern of the HDRLINE row of the style"), crooked.getMessage());
+			assertTrue(crooked.getMessage().endsWith("is 2 wide, but is 1 wide in the rows above"), crooked.getMessage());
+
+			class NoRules implements Style {
+				@Override
+				public String getPattern(Row row, Column column) {
+					return row == Row.HDRDATA || row == Row.ROWDATA ? (column == Column.COLDATA ? null : "") : null;
+				}
+			}
+			ConsoleTable plainTable = new ConsoleTable(new Object[] { "A", "B" }, new Object[][] { { 1, 2 } }).withStyle(new NoRules()).withColumnPadding("");
+			assertEquals("AB\n12\n", plainTable.toString(), "the COLDATA pattern of the data rows is not used, so it may be null");
+		}
+
+
+		@Test
+		void testRenderToSinkThrowingRuntimeException() {
+			ConsoleTable bigTable = new ConsoleTable();
+			for(int i = 0; i < 5000; i++) {
+				bigTable.addRow(i, "row " + i);
+			}
+			Appendable throwing = new Appendable() {
+				@Override
+				public Appendable append(CharSequence text) {
+					throw new IllegalStateException("sink closed");
+				}
+				@Override
+				public Appendable append(CharSequence text, int start, int end) {
+					throw new IllegalStateException("sink closed");
+				}
+				@Override
+				public Appendable append(char c) {
+					throw new IllegalStateException("sink closed");
+				}
+			};
+			StringBuilder console = new StringBuilder();
+			assertTimeoutPreemptively(Duration.ofSeconds(15), () -> {
+				IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> bigTable.renderTo(console, throwing));
+				assertEquals("sink closed", thrown.getMessage());
+			}, "a sink which throws a RuntimeException does not block the render");
+			assertEquals(bigTable.toString(), console.toString(), "the other sinks are written in full");
+		}
+
+
+		@Test
+		void testSpilledRunsMergeLikeRowsSortedInMemory() {
+			Object[][] cells = { { "9", 9, 9.5f }, { "10", 10, 10.25 }, { "100", 100, new BigDecimal("100.10") }, { "2", 2, 2.5 },
+					{ "20", 20, null }, { "3", 3L, new BigDecimal("3") }, { "30", 30, 30.0 }, { "1", (short) 1, 1e300 } };
+			for(int column = 0; column < 3; column++) {
+				ConsoleTable inMemory = new ConsoleTable("-Text", "Whole", "Fraction").withSortBy(column, null, true);
+				ConsoleTable spilled = new ConsoleTable("-Text", "Whole", "Fraction").withSortBy(column, null, true).withMaxRowsInMemory(3);
+				for(Object[] row : cells) {
+					inMemory.addRow(row);
+					spilled.addRow(row);
+				}
+				assertEquals(inMemory.toString(), spilled.toString(), "spilled runs merge in the same order as column " + column + " sorts in memory");
+			}
+			ConsoleTable text = new ConsoleTable("Text").withSortBy(0, null, true).withMaxRowsInMemory(3);
+			for(Object[] row : cells) {
+				text.addRow(row[0]);
+			}
+			assertEquals("1,10,100,2,20,3,30,9", String.join(",", text.toString().replaceAll("[^0-9\n]", "").trim().split("\n+")),
+					"Strings which look like numbers are sorted as Strings");
+		}
+
+
+		@Test
+		void testMaxWidthWithoutVerticalLines() {
+			ConsoleTable cityTable = new ConsoleTable("-City", "-Country", "Population").withVerticalLines(false).withMaxWidth(30);
+			cityTable.addRow("Wellington", "New Zealand", 215100);
+			cityTable.addRow("Ouagadougou", "Burkina Faso", 2453496);
+			cityTable.addRow("Thiruvananthapuram", "India", 957730);
+			for(String line : cityTable.toString().split("\n")) {
+				assertTrue(line.length() <= 30, "the padding is counted when the vertical lines are not shown: [" + line + "]");
+			}
+			assertEquals(30, cityTable.toString().split("\n")[0].length(), "the table is as wide as it may be");
+		}
+
+
+		@Test
+		void testRecordingStartedDuringRender() throws Exception {
+			try(Recording recording = new Recording()) {
+				recording.enable("com.johncsinclair.consoletable.ConsoleTableRender").withThreshold(Duration.ZERO);
+				ConsoleTable petTable = new ConsoleTable("-Pet", "Age");
+				petTable.addRow("Cat", new Object() {
+					@Override
+					public String toString() {
+						// the render event is enabled after the render has begun
+						if(recording.getState() == jdk.jfr.RecordingState.NEW) {
+							recording.start();
+						}
+						return "5";
+					}
+				});
+				assertTrue(petTable.toString().contains("Cat"), "a render is not failed by a recording which starts part way through it");
+				recording.stop();
+			}
+		}
+
+
+		@Test
+		void testAggregateMoney() {
+		    ConsoleTable paymentsTable = new ConsoleTable("-Payee", "Amount", "Text", "Units").withStyle(Styles.BASIC)
+		    		.withAggregate(1, Aggregate.SUM).withAggregate(2, Aggregate.SUM).withAggregate(3, Aggregate.MAX);
+		    paymentsTable.addRow("Vet", new BigDecimal("0.10"), "0.10", new java.math.BigInteger("12345678901234567890"));
+		    paymentsTable.addRow("Groomer", new BigDecimal("0.20"), "0.20", 7);
+
+	        String expected =
+	        "+---------+--------+------+----------------------+"+"\n"+
+	        "| Payee   | Amount | Text |                Units |"+"\n"+
+	        "+---------+--------+------+----------------------+"+"\n"+
+	        "| Vet     |   0.10 | 0.10 | 12345678901234567890 |"+"\n"+
+	        "| Groomer |   0.20 | 0.20 |                    7 |"+"\n"+
+	        "+---------+--------+------+----------------------+"+"\n"+
+	        "| Total   |   0.30 | 0.30 | 12345678901234567890 |"+"\n"+
+	        "+---------+--------+------+----------------------+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(paymentsTable.toString().split("\n")), "BigDecimal, BigInteger and decimal text are totalled exactly");
+
+		    ConsoleTable averageTable = new ConsoleTable("Amount").withAggregate(0, Aggregate.AVG);
+		    averageTable.addRow(new BigDecimal("0.10"));
+		    averageTable.addRow(new BigDecimal("0.20"));
+		    averageTable.addRow(1);
+		    assertTrue(averageTable.toString().contains("0.4333333333333333"), averageTable.toString());
+		}
+
+
+		@Test
+		void testConcurrentRendersOfSpilledRows() throws Exception {
+			ConsoleTable spilledTable = new ConsoleTable("Id", "-Name").withSortBy(0, null, false).withMaxRowsInMemory(7);
+			for(int i = 0; i < 100; i++) {
+				spilledTable.addRow(i * 37 % 101, "row " + i);
+			}
+			String expected = spilledTable.toString();
+			ExecutorService executor = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<String>> renders = new ArrayList<>();
+				for(int i = 0; i < 100; i++) {
+					renders.add(executor.submit(() -> spilledTable.toString()));
+				}
+				for(Future<String> render : renders) {
+					assertEquals(expected, render.get(), "rendering only reads the spilled runs");
+				}
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+
+
+		@Test
+		void testLiveViewAfterColumnsChange() throws IOException {
+			Object[][] hosts = { { "alpha", 100, "up" }, { "beta", 20, "down" } };
+			ConsoleTable hostTable = new ConsoleTable(new Object[] { "-Host", "Load", "-State" }, hosts).withStyle(Styles.BASIC);
+			StringBuilder terminal = new StringBuilder();
+			LiveView view = hostTable.liveView(terminal);
+			view.update();
+
+			hostTable.withColumns(0);
+			terminal.setLength(0);
+			view.update();
+			assertEquals("\u001B[6A" + "\u001B[10G\u001B[K\u001B[1B".repeat(5) + "\u001B[10G\u001B[K\u001B[1B\r", terminal.toString(),
+					"each line is cut back to the one column shown, with no empty columns left from the last frame");
+
+			terminal.setLength(0);
+			assertEquals(0, view.update(), "the view keeps the widths of its new frame");
+		}
+
+
+		@Test
+		void testHeaderLinesFollowTheLayout() {
+			Object[][] pets = { { "Cat", 10 }, { "Dog", 5 } };
+			ConsoleTable petTable = new ConsoleTable(new Object[] { "-Pet", "Age" }, pets).withStyle(Styles.BASIC);
+			petTable.toString();
+			petTable.withVerticalLines(false);
+			assertEquals(new ConsoleTable(new Object[] { "-Pet", "Age" }, pets).withStyle(Styles.BASIC).withVerticalLines(false).toString(),
+					petTable.toString(), "the header lines are rendered again without vertical lines");
+			petTable.withColumnPadding("  ");
+			assertEquals(new ConsoleTable(new Object[] { "-Pet", "Age" }, pets).withStyle(Styles.BASIC).withVerticalLines(false).withColumnPadding("  ").toString(),
+					petTable.toString(), "the header lines are rendered again with the new padding");
+			petTable.withStyle(Styles.LIGHT).withVerticalLines(true);
+			assertEquals(new ConsoleTable(new Object[] { "-Pet", "Age" }, pets).toString(),
+					petTable.toString(), "the header lines are rendered again in the new style");
+			petTable.setHeaders("-Pet", "Years");
+			petTable.toString();
+			petTable.setHeaders("-Pet", "Age  ");
+			assertEquals(new ConsoleTable(new Object[] { "-Pet", "Age  " }, pets).toString(),
+					petTable.toString(), "new headers of the same widths are rendered again");
+		}
+
+
+		@Test
+		void testConsoleEncoder() throws IOException {
+			Object[][] cities = { { "Paris", 48.86 }, { "Wellington", null }, { "New York", -73.99 } };
+			ConsoleTable cityTable = new ConsoleTable(new Object[] { "-City", "'Lat" }, cities).withStyle(Styles.BASIC);
+			StringBuilder console = new StringBuilder();
+			StringBuilder csv = new StringBuilder();
+			cityTable.encodeTo(TableEncoders.console(console, Styles.BASIC), TableEncoders.csv(csv));
+			assertEquals(cityTable.toString(), console.toString(), "the console table is written in the same pass as the other formats");
+			assertEquals("City,Lat\r\nParis,48.86\r\nWellington,\r\nNew York,-73.99\r\n", csv.toString());
+		}
+
+
+		@Test
+		void testSortListOfLists() {
+			List<List<Object>> pets = new ArrayList<>();
+			pets.add(Arrays.asList("Cat", 10));
+			pets.add(Arrays.asList("Dog", 5));
+			pets.add(Arrays.asList("Axolotl", 7));
+			ConsoleTable petTable = new ConsoleTable(Arrays.asList("-Pet", "Age"), pets).withStyle(Styles.BASIC).withSortBy(1, null, true);
+			petTable.addRow("Budgie", 2);
+	        String expected =
+	        "+---------+-----+"+"\n"+
+	        "| Pet     | Age |"+"\n"+
+	        "+---------+-----+"+"\n"+
+	        "| Budgie  |   2 |"+"\n"+
+	        "| Dog     |   5 |"+"\n"+
+	        "| Axolotl |   7 |"+"\n"+
+	        "| Cat     |  10 |"+"\n"+
+	        "+---------+-----+"+"\n";
+			assertEquals(expected, petTable.toString(), "the rows of a List of Lists are copied into the table to be sorted");
+
+			ConsoleTable oldest = new ConsoleTable(Arrays.asList("-Pet", "Age"), pets).withStyle(Styles.BASIC).withTopK(1, 1, null);
+			assertTrue(oldest.toString().contains("| Cat |  10 |"), "the rows of a List of Lists can be limited to the top k");
+		}
+
+
+		@Test
+		void testAggregateSumOverflow() {
+		    ConsoleTable counterTable = new ConsoleTable("-Counter", "Count").withStyle(Styles.BASIC)
+		    		.withGroupBy(0).withAggregate(1, Aggregate.SUM);
+		    counterTable.addRow("bytes", Long.MAX_VALUE);
+		    counterTable.addRow("bytes", 1L);
+		    String table = counterTable.toString();
+		    assertTrue(table.contains("| bytes   | 9223372036854775808 |"), "the subtotal carries on past Long.MAX_VALUE: " + table);
+		    assertTrue(table.contains("| Total   | 9223372036854775808 |"), "the grand total carries on past Long.MAX_VALUE: " + table);
+		    assertFalse(table.contains("-9223372036854775808"), table);
+		}
+
+
+		@Test
+		void testIterableColumnsOutOfOrder() {
+			int[] iterators = { 0 };
+			List<Iterable<Object>> rowData = new ArrayList<>();
+			for(int row = 0; row < 3; row++) {
+				ArrayDeque<Object> cells = new ArrayDeque<Object>() {
+					@Override
+					public Iterator<Object> iterator() {
+						iterators[0]++;
+						return super.iterator();
+					}
+				};
+				for(int column = 0; column < 6; column++) {
+					cells.add("r" + row + "c" + column);
+				}
+				rowData.add(cells);
+			}
+			ConsoleTable inOrder = new ConsoleTable(Arrays.asList("a", "b", "c", "d", "e", "f"), rowData).withStyle(Styles.BASIC).withColumns(0, 1, 2, 3, 4, 5);
+			inOrder.toString();
+			int inOrderIterators = iterators[0];
+
+			iterators[0] = 0;
+			ConsoleTable reversed = new ConsoleTable(Arrays.asList("a", "b", "c", "d", "e", "f"), rowData).withStyle(Styles.BASIC).withColumns(5, 4, 3, 2, 1, 0);
+			String expected =
+			"+------+------+------+------+------+------+"+"\n"+
+			"|    f |    e |    d |    c |    b |    a |"+"\n"+
+			"+------+------+------+------+------+------+"+"\n"+
+			"| r0c5 | r0c4 | r0c3 | r0c2 | r0c1 | r0c0 |"+"\n"+
+			"| r1c5 | r1c4 | r1c3 | r1c2 | r1c1 | r1c0 |"+"\n"+
+			"| r2c5 | r2c4 | r2c3 | r2c2 | r2c1 | r2c0 |"+"\n"+
+			"+------+------+------+------+------+------+"+"\n";
+			assertLinesMatch( Arrays.asList(expected.split("\n")),
+					Arrays.asList(reversed.toString().split("\n")), "the columns of an Iterable view are reordered");
+			assertTrue(iterators[0] <= 2 * inOrderIterators, "a row read out of order is copied once, not iterated again for each cell, but was iterated " + iterators[0] + " times");
+		}
+
 	}
 
 